@@ -0,0 +1,6 @@
+package net.corda.samples.tokenizedhouse.schemas;
+
+/**
+ * The family of schemas for the house and cassino evolvable token types.
+ */
+public class TokenTypeSchema { }
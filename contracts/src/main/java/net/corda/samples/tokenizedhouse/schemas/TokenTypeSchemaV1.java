@@ -0,0 +1,93 @@
+package net.corda.samples.tokenizedhouse.schemas;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.samples.tokenizedhouse.states.FungibleCassinoTokenState;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Relational view of {@link FungibleHouseTokenState} and {@link FungibleCassinoTokenState}, so the valuation of a token type
+ * can be joined against the Token SDK's fungible_token table instead of being loaded and multiplied in a flow.
+ * The linear_id column holds the same value as fungible_token.token_identifier for tokens issued through a pointer.
+ */
+public class TokenTypeSchemaV1 extends MappedSchema {
+
+    public TokenTypeSchemaV1() {
+        super(TokenTypeSchema.class, 1, ImmutableList.of(PersistentHouseTokenType.class, PersistentCassinoTokenType.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "token-type.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "house_token_type", indexes = {
+            @Index(name = "house_token_type_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "house_token_type_symbol_idx", columnList = "symbol")
+    })
+    public static class PersistentHouseTokenType extends PersistentState {
+        @Column(name = "linear_id", nullable = false) private final String linearId;
+        @Column(name = "symbol", nullable = false) private final String symbol;
+        @Column(name = "valuation", nullable = false) private final int valuation;
+        @Column(name = "maintainer", nullable = false) private final String maintainer;
+        @Column(name = "fraction_digits", nullable = false) private final int fractionDigits;
+
+        public PersistentHouseTokenType(String linearId, String symbol, int valuation, String maintainer, int fractionDigits) {
+            this.linearId = linearId;
+            this.symbol = symbol;
+            this.valuation = valuation;
+            this.maintainer = maintainer;
+            this.fractionDigits = fractionDigits;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentHouseTokenType() {
+            this(null, null, 0, null, 0);
+        }
+
+        public String getLinearId() { return linearId; }
+        public String getSymbol() { return symbol; }
+        public int getValuation() { return valuation; }
+        public String getMaintainer() { return maintainer; }
+        public int getFractionDigits() { return fractionDigits; }
+    }
+
+    @Entity
+    @Table(name = "cassino_token_type", indexes = {
+            @Index(name = "cassino_token_type_linear_id_idx", columnList = "linear_id"),
+            @Index(name = "cassino_token_type_symbol_idx", columnList = "symbol")
+    })
+    public static class PersistentCassinoTokenType extends PersistentState {
+        @Column(name = "linear_id", nullable = false) private final String linearId;
+        @Column(name = "symbol", nullable = false) private final String symbol;
+        @Column(name = "valuation", nullable = false) private final int valuation;
+        @Column(name = "maintainer", nullable = false) private final String maintainer;
+        @Column(name = "fraction_digits", nullable = false) private final int fractionDigits;
+
+        public PersistentCassinoTokenType(String linearId, String symbol, int valuation, String maintainer, int fractionDigits) {
+            this.linearId = linearId;
+            this.symbol = symbol;
+            this.valuation = valuation;
+            this.maintainer = maintainer;
+            this.fractionDigits = fractionDigits;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentCassinoTokenType() {
+            this(null, null, 0, null, 0);
+        }
+
+        public String getLinearId() { return linearId; }
+        public String getSymbol() { return symbol; }
+        public int getValuation() { return valuation; }
+        public String getMaintainer() { return maintainer; }
+        public int getFractionDigits() { return fractionDigits; }
+    }
+}
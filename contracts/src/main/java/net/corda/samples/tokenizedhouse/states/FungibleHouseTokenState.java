@@ -6,13 +6,17 @@ import net.corda.samples.tokenizedhouse.contracts.HouseTokenStateContract;
 import net.corda.core.contracts.BelongsToContract;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.identity.Party;
+import net.corda.core.schemas.MappedSchema;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.schemas.QueryableState;
+import net.corda.samples.tokenizedhouse.schemas.TokenTypeSchemaV1;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
 import java.util.Objects;
 
 @BelongsToContract(HouseTokenStateContract.class)
-public class FungibleHouseTokenState extends EvolvableTokenType {
+public class FungibleHouseTokenState extends EvolvableTokenType implements QueryableState {
 
     private final int valuation;
     private final Party maintainer;
@@ -57,6 +61,22 @@ public class FungibleHouseTokenState extends EvolvableTokenType {
         return this.uniqueIdentifier;
     }
 
+    @NotNull
+    @Override
+    public PersistentState generateMappedObject(@NotNull MappedSchema schema) {
+        if (schema instanceof TokenTypeSchemaV1) {
+            return new TokenTypeSchemaV1.PersistentHouseTokenType(uniqueIdentifier.getId().toString(), symbol, valuation,
+                    maintainer.getName().toString(), fractionDigits);
+        }
+        throw new IllegalArgumentException("Unrecognised schema " + schema);
+    }
+
+    @NotNull
+    @Override
+    public Iterable<MappedSchema> supportedSchemas() {
+        return ImmutableList.of(new TokenTypeSchemaV1());
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
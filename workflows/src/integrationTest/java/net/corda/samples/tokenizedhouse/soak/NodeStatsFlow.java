@@ -0,0 +1,71 @@
+package net.corda.samples.tokenizedhouse.soak;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Reads row counts the soak test tracks straight from the node's database. The checkpoint count includes the
+ * checkpoint of this flow.
+ */
+@StartableByRPC
+public class NodeStatsFlow extends FlowLogic<NodeStatsFlow.NodeStats> {
+
+    @CordaSerializable
+    public static class NodeStats {
+        private final long checkpoints;
+        private final long unconsumedStates;
+        private final long consumedStates;
+        private final long fungibleTokenRows;
+
+        public NodeStats(long checkpoints, long unconsumedStates, long consumedStates, long fungibleTokenRows) {
+            this.checkpoints = checkpoints;
+            this.unconsumedStates = unconsumedStates;
+            this.consumedStates = consumedStates;
+            this.fungibleTokenRows = fungibleTokenRows;
+        }
+
+        public long getCheckpoints() {
+            return checkpoints;
+        }
+
+        public long getUnconsumedStates() {
+            return unconsumedStates;
+        }
+
+        public long getConsumedStates() {
+            return consumedStates;
+        }
+
+        public long getFungibleTokenRows() {
+            return fungibleTokenRows;
+        }
+    }
+
+    @Override
+    @Suspendable
+    public NodeStats call() throws FlowException {
+        try (Statement statement = getServiceHub().jdbcSession().createStatement()) {
+            return new NodeStats(
+                    count(statement, "SELECT COUNT(*) FROM node_checkpoints"),
+                    count(statement, "SELECT COUNT(*) FROM vault_states WHERE state_status = 0"),
+                    count(statement, "SELECT COUNT(*) FROM vault_states WHERE state_status = 1"),
+                    count(statement, "SELECT COUNT(*) FROM fungible_token"));
+        } catch (SQLException e) {
+            throw new FlowException("Reading node stats failed", e);
+        }
+    }
+
+    private static long count(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
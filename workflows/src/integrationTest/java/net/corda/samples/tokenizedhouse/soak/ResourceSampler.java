@@ -0,0 +1,96 @@
+package net.corda.samples.tokenizedhouse.soak;
+
+import net.corda.testing.driver.NodeHandle;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Samples JVM and per-node resource usage during a soak run and appends every sample to a CSV report.
+ *
+ * The driver runs the nodes in process, so heap and GC figures are those of the shared JVM.
+ */
+class ResourceSampler {
+    private static final String HEADER = "timestamp,node,completed_ops,heap_used_bytes,gc_count,gc_time_ms,flows," +
+            "checkpoints,unconsumed_states,consumed_states,fungible_token_rows,db_bytes";
+
+    static class Sample {
+        final Instant timestamp;
+        final long completedOps;
+        final long heapUsed;
+
+        Sample(Instant timestamp, long completedOps, long heapUsed) {
+            this.timestamp = timestamp;
+            this.completedOps = completedOps;
+            this.heapUsed = heapUsed;
+        }
+    }
+
+    private final List<NodeHandle> nodes;
+    private final Path report;
+    private final AtomicLong completedOps;
+    private final List<Sample> samples = Collections.synchronizedList(new ArrayList<>());
+
+    ResourceSampler(List<NodeHandle> nodes, Path report, AtomicLong completedOps) throws IOException {
+        this.nodes = nodes;
+        this.report = report;
+        this.completedOps = completedOps;
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Files.write(report, Collections.singletonList(HEADER));
+    }
+
+    List<Sample> getSamples() {
+        return new ArrayList<>(samples);
+    }
+
+    void sample() {
+        Instant now = Instant.now();
+        long ops = completedOps.get();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long gcCount = 0;
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(gc.getCollectionCount(), 0);
+            gcTime += Math.max(gc.getCollectionTime(), 0);
+        }
+        samples.add(new Sample(now, ops, heapUsed));
+
+        List<String> rows = new ArrayList<>();
+        for (NodeHandle node : nodes) {
+            try {
+                NodeStatsFlow.NodeStats stats = node.getRpc().startFlowDynamic(NodeStatsFlow.class).getReturnValue().get();
+                rows.add(String.join(",", now.toString(), node.getNodeInfo().getLegalIdentities().get(0).getName().getOrganisation(),
+                        Long.toString(ops), Long.toString(heapUsed), Long.toString(gcCount), Long.toString(gcTime),
+                        Integer.toString(node.getRpc().stateMachinesSnapshot().size()),
+                        Long.toString(stats.getCheckpoints()), Long.toString(stats.getUnconsumedStates()),
+                        Long.toString(stats.getConsumedStates()), Long.toString(stats.getFungibleTokenRows()),
+                        Long.toString(databaseBytes(node.getBaseDirectory()))));
+            } catch (Exception e) {
+                // A missed sample must not end the soak run; the gap shows in the report.
+                rows.add(now + "," + node.getNodeInfo().getLegalIdentities().get(0).getName().getOrganisation() + ",sample failed: " + e);
+            }
+        }
+        try {
+            Files.write(report, rows, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Caught exception writing soak report: ", e);
+        }
+    }
+
+    private static long databaseBytes(Path baseDirectory) throws IOException {
+        try (Stream<Path> files = Files.list(baseDirectory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".db"))
+                    .mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
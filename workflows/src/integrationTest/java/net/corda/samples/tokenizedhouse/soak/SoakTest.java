@@ -0,0 +1,235 @@
+package net.corda.samples.tokenizedhouse.soak;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.samples.tokenizedhouse.flows.CassinoEvolvableFungibleTokenFlow;
+import net.corda.samples.tokenizedhouse.flows.CreateAndShareAccountFlow;
+import net.corda.samples.tokenizedhouse.flows.QueryTokens;
+import net.corda.samples.tokenizedhouse.flows.RealEstateEvolvableFungibleTokenFlow;
+import net.corda.testing.driver.DriverDSL;
+import net.corda.testing.driver.DriverParameters;
+import net.corda.testing.driver.NodeHandle;
+import net.corda.testing.driver.NodeParameters;
+import net.corda.testing.driver.VerifierType;
+import net.corda.testing.node.NotarySpec;
+import net.corda.testing.node.TestCordapp;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static net.corda.testing.driver.Driver.driver;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Long-running soak test: starts a network shaped like deployNodes (Notary, Seller, Buyer, Friend plus
+ * soak.extraNodes more), then runs mixed issue/move/query traffic across the nodes for soak.durationMinutes while
+ * ResourceSampler records heap, GC, flow, checkpoint, vault row and database size figures to soak.report.
+ *
+ * Run it with ./gradlew workflows:soakTest -Dsoak.durationMinutes=60; it is excluded from integrationTest.
+ * The run fails if throughput in its last quarter drops below soak.minThroughputRatio of the first quarter, if more
+ * than soak.maxFailureRate of the operations fail, or if checkpoints are left behind once traffic stops.
+ */
+public class SoakTest {
+    private static final Logger logger = LoggerFactory.getLogger(SoakTest.class);
+    private static final CordaX500Name NOTARY = CordaX500Name.parse("O=Notary,L=London,C=GB");
+    private static final List<CordaX500Name> NAMED_NODES = ImmutableList.of(
+            CordaX500Name.parse("O=Seller,L=London,C=GB"),
+            CordaX500Name.parse("O=Buyer,L=New York,C=US"),
+            CordaX500Name.parse("O=Friend,L=Paris,C=FR"));
+    private static final String HOUSE = "soak-house";
+    private static final String CASSINO = "soak-cassino";
+    private static final int INITIAL_HOLDING = 1_000_000;
+
+    private final int extraNodes = Integer.getInteger("soak.extraNodes", 2);
+    private final Duration duration = Duration.ofMinutes(Long.getLong("soak.durationMinutes", 10));
+    private final Duration sampleInterval = Duration.ofSeconds(Long.getLong("soak.sampleSeconds", 30));
+    private final int workers = Integer.getInteger("soak.workers", 4);
+    private final double maxFailureRate = Double.parseDouble(System.getProperty("soak.maxFailureRate", "0.01"));
+    private final double minThroughputRatio = Double.parseDouble(System.getProperty("soak.minThroughputRatio", "0.5"));
+    private final Path report = Paths.get(System.getProperty("soak.report", "build/soak/samples.csv"));
+
+    private final AtomicLong completedOps = new AtomicLong();
+    private final Map<String, AtomicLong> succeeded = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failed = new ConcurrentHashMap<>();
+
+    @Test
+    public void mixedTrafficSoak() {
+        driver(new DriverParameters()
+                .withStartNodesInProcess(true)
+                .withNotarySpecs(ImmutableList.of(new NotarySpec(NOTARY, false, Collections.emptyList(), VerifierType.InMemory, null)))
+                .withCordappsForAllNodes(ImmutableList.of(
+                        TestCordapp.findCordapp("net.corda.samples.tokenizedhouse.contracts"),
+                        TestCordapp.findCordapp("net.corda.samples.tokenizedhouse.flows"),
+                        TestCordapp.findCordapp("net.corda.samples.tokenizedhouse.soak"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.workflows"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.accounts.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.accounts.workflows"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.ci.workflows"))), dsl -> {
+            try {
+                List<NodeHandle> nodes = startNodes(dsl);
+                setUpLedger(nodes);
+
+                ResourceSampler sampler = new ResourceSampler(nodes, report, completedOps);
+                ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+                scheduler.scheduleAtFixedRate(sampler::sample, 0, sampleInterval.toMillis(), TimeUnit.MILLISECONDS);
+                runTraffic(nodes, Instant.now().plus(duration));
+                scheduler.shutdown();
+                scheduler.awaitTermination(sampleInterval.toMillis() * 2, TimeUnit.MILLISECONDS);
+                sampler.sample();
+
+                checkFailureRate();
+                checkThroughput(sampler.getSamples());
+                checkNoLeftoverCheckpoints(nodes);
+            } catch (Exception e) {
+                throw new RuntimeException("Caught exception during test: ", e);
+            }
+            return null;
+        });
+    }
+
+    private List<NodeHandle> startNodes(DriverDSL dsl) throws Exception {
+        List<CordaX500Name> names = new ArrayList<>(NAMED_NODES);
+        for (int i = 1; i <= extraNodes; i++) {
+            names.add(new CordaX500Name("Extra" + i, "London", "GB"));
+        }
+        List<NodeHandle> nodes = new ArrayList<>();
+        for (CordaX500Name name : names) {
+            nodes.add(dsl.startNode(new NodeParameters().withProvidedName(name)).get());
+        }
+        return nodes;
+    }
+
+    /**
+     * One account per node shared with every other node, both token types created by Seller with every node as an
+     * observer, and a large holding of each issued to every account so moves rarely run dry.
+     */
+    private void setUpLedger(List<NodeHandle> nodes) throws Exception {
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).getRpc().startFlowDynamic(CreateAndShareAccountFlow.class, accountName(i), othersThan(nodes, i))
+                    .getReturnValue().get();
+        }
+        CordaRPCOps seller = nodes.get(0).getRpc();
+        seller.startFlowDynamic(RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow.class, HOUSE, 100000,
+                othersThan(nodes, 0)).getReturnValue().get();
+        seller.startFlowDynamic(CassinoEvolvableFungibleTokenFlow.CreateCassinoTokenFlow.class, CASSINO, 100000,
+                othersThan(nodes, 0)).getReturnValue().get();
+        for (int i = 0; i < nodes.size(); i++) {
+            seller.startFlowDynamic(RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow.class, HOUSE, INITIAL_HOLDING,
+                    accountName(i)).getReturnValue().get();
+            seller.startFlowDynamic(CassinoEvolvableFungibleTokenFlow.IssueCassinoTokenFlow.class, CASSINO, INITIAL_HOLDING,
+                    accountName(i)).getReturnValue().get();
+        }
+    }
+
+    private void runTraffic(List<NodeHandle> nodes, Instant deadline) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        for (int w = 0; w < workers; w++) {
+            pool.submit(() -> {
+                while (Instant.now().isBefore(deadline)) {
+                    runOneOperation(nodes);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(duration.toMillis() + TimeUnit.MINUTES.toMillis(5), TimeUnit.MILLISECONDS);
+    }
+
+    private void runOneOperation(List<NodeHandle> nodes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(nodes.size());
+        int to = (from + 1 + random.nextInt(nodes.size() - 1)) % nodes.size();
+        boolean house = random.nextBoolean();
+        int roll = random.nextInt(10);
+        String operation;
+        try {
+            if (roll < 2) {
+                operation = "issue";
+                nodes.get(0).getRpc().startFlowDynamic(house ? RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow.class
+                                : CassinoEvolvableFungibleTokenFlow.IssueCassinoTokenFlow.class,
+                        house ? HOUSE : CASSINO, 10, accountName(to)).getReturnValue().get();
+            } else if (roll < 7) {
+                operation = "move";
+                nodes.get(from).getRpc().startFlowDynamic(house ? RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow.class
+                                : CassinoEvolvableFungibleTokenFlow.MoveCassinoTokenFlow.class,
+                        house ? HOUSE : CASSINO, 1, accountName(to)).getReturnValue().get();
+            } else {
+                operation = "query";
+                nodes.get(from).getRpc().startFlowDynamic(house ? QueryTokens.GetHouseTokenBalance.class
+                        : QueryTokens.GetCassinoTokenBalance.class, house ? HOUSE : CASSINO).getReturnValue().get();
+            }
+            succeeded.computeIfAbsent(operation, op -> new AtomicLong()).incrementAndGet();
+        } catch (Exception e) {
+            operation = roll < 2 ? "issue" : roll < 7 ? "move" : "query";
+            if (failed.computeIfAbsent(operation, op -> new AtomicLong()).incrementAndGet() <= 5) {
+                logger.warn("Soak {} failed", operation, e);
+            }
+        }
+        completedOps.incrementAndGet();
+    }
+
+    private void checkFailureRate() {
+        long ok = succeeded.values().stream().mapToLong(AtomicLong::get).sum();
+        long ko = failed.values().stream().mapToLong(AtomicLong::get).sum();
+        logger.info("Soak operations succeeded {}, failed {}", succeeded, failed);
+        assertTrue("No traffic ran", ok + ko > 0);
+        assertTrue(ko + " of " + (ok + ko) + " operations failed", ko <= maxFailureRate * (ok + ko));
+    }
+
+    private void checkThroughput(List<ResourceSampler.Sample> samples) {
+        int quarter = samples.size() / 4;
+        if (quarter < 1) {
+            return;
+        }
+        double first = rate(samples.get(0), samples.get(quarter));
+        double last = rate(samples.get(samples.size() - 1 - quarter), samples.get(samples.size() - 1));
+        assertTrue("Throughput degraded from " + first + " to " + last + " ops/s", last >= minThroughputRatio * first);
+    }
+
+    private static double rate(ResourceSampler.Sample start, ResourceSampler.Sample end) {
+        double seconds = Math.max(Duration.between(start.timestamp, end.timestamp).toMillis(), 1) / 1000.0;
+        return (end.completedOps - start.completedOps) / seconds;
+    }
+
+    private void checkNoLeftoverCheckpoints(List<NodeHandle> nodes) throws Exception {
+        for (NodeHandle node : nodes) {
+            for (int attempt = 0; attempt < 60 && !node.getRpc().stateMachinesSnapshot().isEmpty(); attempt++) {
+                Thread.sleep(1000);
+            }
+            // The stats flow's own checkpoint is the only one allowed.
+            long checkpoints = node.getRpc().startFlowDynamic(NodeStatsFlow.class).getReturnValue().get().getCheckpoints();
+            assertTrue(checkpoints + " checkpoints left on " + node.getNodeInfo().getLegalIdentities().get(0).getName(),
+                    checkpoints <= 1);
+        }
+    }
+
+    private static String accountName(int nodeIndex) {
+        return "soak-account-" + nodeIndex;
+    }
+
+    private static List<Party> othersThan(List<NodeHandle> nodes, int index) {
+        return nodes.stream()
+                .filter(node -> node != nodes.get(index))
+                .map(node -> node.getNodeInfo().getLegalIdentities().get(0))
+                .collect(Collectors.toList());
+    }
+}
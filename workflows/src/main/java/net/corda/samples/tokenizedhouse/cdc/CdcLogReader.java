@@ -0,0 +1,93 @@
+package net.corda.samples.tokenizedhouse.cdc;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tails the change-data-capture log from any offset. It only reads the log's files, so consumers can run it in their
+ * own process on the node's machine without touching the node.
+ *
+ * <pre>
+ * CdcLogReader reader = new CdcLogReader(Paths.get("cdc"), lastProcessedOffset + 1);
+ * while (running) {
+ *     List&lt;CdcRecord&gt; records = reader.poll(1000);
+ *     if (records.isEmpty()) Thread.sleep(100);
+ *     ...
+ * }
+ * </pre>
+ */
+public class CdcLogReader {
+    private final Path directory;
+    private long nextOffset;
+    private long segmentBase = -1;
+    private MappedByteBuffer segment;
+
+    public CdcLogReader(Path directory, long fromOffset) {
+        this.directory = directory;
+        this.nextOffset = fromOffset;
+    }
+
+    /**
+     * @return the offset of the next record poll will return
+     */
+    public long nextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * @return the next record, or null if it has not been written yet
+     */
+    public CdcRecord poll() throws IOException {
+        if (!mapSegmentFor(nextOffset)) {
+            return null;
+        }
+        CdcRecord record = CdcRecord.readFrom(segment, (int) (nextOffset - segmentBase) * CdcRecord.SIZE);
+        if (record == null || record.getOffset() != nextOffset) {
+            return null;
+        }
+        nextOffset++;
+        return record;
+    }
+
+    /**
+     * @return up to max records that are available now, possibly none
+     */
+    public List<CdcRecord> poll(int max) throws IOException {
+        List<CdcRecord> records = new ArrayList<>();
+        CdcRecord record;
+        while (records.size() < max && (record = poll()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    private boolean mapSegmentFor(long offset) throws IOException {
+        if (segment != null && offset >= segmentBase && offset < segmentBase + segment.capacity() / CdcRecord.SIZE) {
+            return true;
+        }
+        long base = -1;
+        for (long candidate : CdcSegments.baseOffsets(directory)) {
+            if (candidate <= offset) {
+                base = candidate;
+            }
+        }
+        if (base < 0) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(CdcSegments.file(directory, base), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (offset >= base + mapped.capacity() / CdcRecord.SIZE) {
+                // The offset lies in a segment the writer has not created yet.
+                return false;
+            }
+            segment = mapped;
+            segmentBase = base;
+        }
+        return true;
+    }
+}
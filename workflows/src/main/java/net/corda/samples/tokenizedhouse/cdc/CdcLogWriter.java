@@ -0,0 +1,95 @@
+package net.corda.samples.tokenizedhouse.cdc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Single writer of the change-data-capture log.
+ *
+ * Segments are preallocated to recordsPerSegment records and memory-mapped, so an append is a copy into the page
+ * cache; readers in other processes see it as soon as it is written. Offsets are assigned here, one per record,
+ * without gaps. On start the writer resumes after the last valid record of the newest segment.
+ */
+public class CdcLogWriter implements Closeable {
+    private final Path directory;
+    private final int recordsPerSegment;
+    private long segmentBase;
+    private MappedByteBuffer segment;
+    private long nextOffset;
+
+    public CdcLogWriter(Path directory, int recordsPerSegment) throws IOException {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        Files.createDirectories(directory);
+        List<Long> bases = CdcSegments.baseOffsets(directory);
+        if (bases.isEmpty()) {
+            openSegment(0);
+            nextOffset = 0;
+        } else {
+            long last = bases.get(bases.size() - 1);
+            openSegment(last);
+            nextOffset = last;
+            while (nextOffset - last < capacity()) {
+                CdcRecord record = CdcRecord.readFrom(segment, position(nextOffset));
+                if (record == null || record.getOffset() != nextOffset) {
+                    break;
+                }
+                nextOffset++;
+            }
+        }
+    }
+
+    public synchronized long nextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Appends the record under the next offset, which is returned. The record's own offset is ignored.
+     */
+    public synchronized long append(CdcRecord record) throws IOException {
+        if (nextOffset - segmentBase >= capacity()) {
+            segment.force();
+            openSegment(nextOffset);
+        }
+        segment.position(position(nextOffset));
+        record.withOffset(nextOffset).writeTo(segment);
+        return nextOffset++;
+    }
+
+    /**
+     * Flushes appended records to disk.
+     */
+    public synchronized void force() {
+        segment.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        force();
+    }
+
+    private long capacity() {
+        return segment.capacity() / CdcRecord.SIZE;
+    }
+
+    private int position(long offset) {
+        return (int) (offset - segmentBase) * CdcRecord.SIZE;
+    }
+
+    private void openSegment(long baseOffset) throws IOException {
+        Path file = CdcSegments.file(directory, baseOffset);
+        // Keep the size of an existing segment, so changing recordsPerSegment only affects new ones.
+        long size = Files.exists(file) && Files.size(file) > 0 ? Files.size(file) : (long) recordsPerSegment * CdcRecord.SIZE;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segmentBase = baseOffset;
+    }
+}
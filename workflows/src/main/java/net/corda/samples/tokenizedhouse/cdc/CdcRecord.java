@@ -0,0 +1,128 @@
+package net.corda.samples.tokenizedhouse.cdc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * One token event in the change-data-capture log, stored as a fixed-size binary record:
+ *
+ *   offset (8) | timestamp millis (8) | event type (1) | asset class (1) | direction (1) | reserved (1) |
+ *   transaction id (32) | state index (4) | token type id (16) | holder key hash (32) | quantity (8) | CRC32 (4)
+ *
+ * The transaction is the one the event happened in: for PRODUCED records the state index points into its outputs, for
+ * CONSUMED records into its inputs. For VALUATION events quantity holds the new valuation and the holder hash is that
+ * of the maintainer's key.
+ * Fixed-size records let a reader seek straight to any offset; the CRC tells a written record from a torn or
+ * not yet written one.
+ */
+public class CdcRecord {
+    public static final int SIZE = 116;
+    private static final int CRC_POSITION = SIZE - 4;
+
+    public enum EventType { ISSUE, MOVE, REDEEM, VALUATION }
+
+    public enum Asset { HOUSE, CASSINO }
+
+    public enum Direction { PRODUCED, CONSUMED }
+
+    private final long offset;
+    private final long timestamp;
+    private final EventType eventType;
+    private final Asset asset;
+    private final Direction direction;
+    private final byte[] txId;
+    private final int stateIndex;
+    private final UUID tokenTypeId;
+    private final byte[] holderKeyHash;
+    private final long quantity;
+
+    public CdcRecord(long offset, long timestamp, EventType eventType, Asset asset, Direction direction, byte[] txId,
+                     int stateIndex, UUID tokenTypeId, byte[] holderKeyHash, long quantity) {
+        if (txId.length != 32 || holderKeyHash.length != 32) {
+            throw new IllegalArgumentException("Transaction id and holder key hash must be 32 bytes");
+        }
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.eventType = eventType;
+        this.asset = asset;
+        this.direction = direction;
+        this.txId = txId.clone();
+        this.stateIndex = stateIndex;
+        this.tokenTypeId = tokenTypeId;
+        this.holderKeyHash = holderKeyHash.clone();
+        this.quantity = quantity;
+    }
+
+    public long getOffset() { return offset; }
+    public long getTimestamp() { return timestamp; }
+    public EventType getEventType() { return eventType; }
+    public Asset getAsset() { return asset; }
+    public Direction getDirection() { return direction; }
+    public byte[] getTxId() { return txId.clone(); }
+    public int getStateIndex() { return stateIndex; }
+    public UUID getTokenTypeId() { return tokenTypeId; }
+    public byte[] getHolderKeyHash() { return holderKeyHash.clone(); }
+    public long getQuantity() { return quantity; }
+
+    CdcRecord withOffset(long newOffset) {
+        return new CdcRecord(newOffset, timestamp, eventType, asset, direction, txId, stateIndex, tokenTypeId,
+                holderKeyHash, quantity);
+    }
+
+    /**
+     * Writes the record at the buffer's current position, CRC last.
+     */
+    void writeTo(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.putLong(offset).putLong(timestamp)
+                .put((byte) eventType.ordinal()).put((byte) asset.ordinal()).put((byte) direction.ordinal()).put((byte) 0)
+                .put(txId).putInt(stateIndex)
+                .putLong(tokenTypeId.getMostSignificantBits()).putLong(tokenTypeId.getLeastSignificantBits())
+                .put(holderKeyHash).putLong(quantity);
+        buffer.putInt(crc(buffer, start));
+    }
+
+    /**
+     * Reads the record at the given buffer position, or returns null if no valid record has been written there yet.
+     */
+    static CdcRecord readFrom(ByteBuffer buffer, int position) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        if (view.getInt(position + CRC_POSITION) != crc(view, position)) {
+            return null;
+        }
+        long offset = view.getLong();
+        long timestamp = view.getLong();
+        EventType eventType = EventType.values()[view.get()];
+        Asset asset = Asset.values()[view.get()];
+        Direction direction = Direction.values()[view.get()];
+        view.get();
+        byte[] txId = new byte[32];
+        view.get(txId);
+        int stateIndex = view.getInt();
+        UUID tokenTypeId = new UUID(view.getLong(), view.getLong());
+        byte[] holderKeyHash = new byte[32];
+        view.get(holderKeyHash);
+        return new CdcRecord(offset, timestamp, eventType, asset, direction, txId, stateIndex, tokenTypeId,
+                holderKeyHash, view.getLong());
+    }
+
+    private static int crc(ByteBuffer buffer, int start) {
+        byte[] body = new byte[CRC_POSITION];
+        for (int i = 0; i < CRC_POSITION; i++) {
+            body[i] = buffer.get(start + i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "CdcRecord(offset=" + offset + ", timestamp=" + timestamp + ", eventType=" + eventType + ", asset=" + asset +
+                ", direction=" + direction + ", stateIndex=" + stateIndex + ", tokenTypeId=" + tokenTypeId +
+                ", quantity=" + quantity + ", txId=" + Arrays.toString(txId) + ")";
+    }
+}
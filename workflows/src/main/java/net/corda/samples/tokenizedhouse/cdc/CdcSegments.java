@@ -0,0 +1,35 @@
+package net.corda.samples.tokenizedhouse.cdc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Naming of the log's segment files: cdc-BASE.log, where BASE is the zero-padded offset of its first record.
+ */
+final class CdcSegments {
+    private static final String PREFIX = "cdc-";
+    private static final String SUFFIX = ".log";
+
+    private CdcSegments() { }
+
+    static Path file(Path directory, long baseOffset) {
+        return directory.resolve(String.format(PREFIX + "%020d" + SUFFIX, baseOffset));
+    }
+
+    static List<Long> baseOffsets(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return java.util.Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
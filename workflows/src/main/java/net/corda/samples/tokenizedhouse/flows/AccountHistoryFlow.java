@@ -0,0 +1,207 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.samples.tokenizedhouse.services.AccountHistoryService;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Lists an account's house and cassino token events, oldest first, from the account_token_event table filled by
+ * {@link AccountHistoryService}.
+ *
+ * Pages are read with keyset paging on (event_time, event_id), which the table's index serves directly, so every
+ * page costs the same however deep into the history it is. Pass the nextCursor of a page to get the one after it; it is
+ * null on the last page. Symbol, from and to (from inclusive, to exclusive) are optional filters. The page is cut by
+ * the JPA provider, which writes the row limit in the node database's own dialect.
+ */
+@StartableByRPC
+public class AccountHistoryFlow extends FlowLogic<AccountHistoryFlow.AccountHistoryPage> {
+
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    // A symbol is the same in every version of a token type, so any version gives it.
+    private static final String HISTORY_QUERY =
+            "SELECT e.event_id, e.event_type, e.asset_class, e.token_identifier, tt.symbol, e.quantity, e.tx_id, e.event_time " +
+            "FROM account_token_event e " +
+            "LEFT JOIN (SELECT linear_id, symbol FROM house_token_type UNION SELECT linear_id, symbol FROM cassino_token_type) tt " +
+            "ON tt.linear_id = e.token_identifier " +
+            "WHERE e.account_id = ? AND e.event_time >= ? AND e.event_time < ? " +
+            "AND (e.event_time > ? OR (e.event_time = ? AND e.event_id > ?)) %s" +
+            "ORDER BY e.event_time, e.event_id";
+
+    private final String accountName;
+    private final String symbol;
+    private final Instant from;
+    private final Instant to;
+    private final String cursor;
+    private final int pageSize;
+
+    public AccountHistoryFlow(String accountName, String symbol, Instant from, Instant to, String cursor, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.accountName = accountName;
+        this.symbol = symbol;
+        this.from = from;
+        this.to = to;
+        this.cursor = cursor;
+        this.pageSize = pageSize;
+    }
+
+    public AccountHistoryFlow(String accountName, String cursor) {
+        this(accountName, null, null, null, cursor, DEFAULT_PAGE_SIZE);
+    }
+
+    @Override
+    @Suspendable
+    public AccountHistoryPage call() throws FlowException {
+        UUID accountId = VaultLookups.accountByName(this, accountName).getIdentifier().getId();
+        // Start after the cursor's event, or before every event.
+        long afterTime = Long.MIN_VALUE;
+        String afterEventId = "";
+        if (cursor != null) {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid history cursor \"" + cursor + "\"");
+            }
+            afterTime = Long.parseLong(decoded.substring(0, separator));
+            afterEventId = decoded.substring(separator + 1);
+        }
+
+        String query = String.format(HISTORY_QUERY, symbol == null ? "" : "AND tt.symbol = ? ");
+        long fromTime = from == null ? Long.MIN_VALUE : from.toEpochMilli();
+        long toTime = to == null ? Long.MAX_VALUE : to.toEpochMilli();
+        long startTime = afterTime;
+        String startEventId = afterEventId;
+        List<?> rows = getServiceHub().withEntityManager((EntityManager em) -> {
+            Query history = em.createNativeQuery(query)
+                    .setParameter(1, accountId.toString())
+                    .setParameter(2, fromTime)
+                    .setParameter(3, toTime)
+                    .setParameter(4, startTime)
+                    .setParameter(5, startTime)
+                    .setParameter(6, startEventId);
+            if (symbol != null) {
+                history.setParameter(7, symbol);
+            }
+            // One row more than the page tells whether there is a next page.
+            return history.setMaxResults(pageSize + 1).getResultList();
+        });
+
+        List<AccountEvent> events = new ArrayList<>();
+        String nextCursor = null;
+        for (Object row : rows) {
+            if (events.size() == pageSize) {
+                AccountEvent last = events.get(events.size() - 1);
+                nextCursor = Base64.getUrlEncoder().encodeToString(
+                        (last.getTime().toEpochMilli() + ":" + last.getEventId()).getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            Object[] columns = (Object[]) row;
+            events.add(new AccountEvent(columns[0].toString(),
+                    AccountHistoryService.EventType.valueOf(columns[1].toString()),
+                    AssetClass.valueOf(columns[2].toString()), columns[3].toString(),
+                    columns[4] == null ? null : columns[4].toString(), ((Number) columns[5]).longValue(),
+                    columns[6].toString(), Instant.ofEpochMilli(((Number) columns[7]).longValue())));
+        }
+        return new AccountHistoryPage(events, nextCursor);
+    }
+
+    @CordaSerializable
+    public static class AccountEvent {
+        private final String eventId;
+        private final AccountHistoryService.EventType eventType;
+        private final AssetClass assetClass;
+        private final String tokenIdentifier;
+        private final String symbol;
+        private final long quantity;
+        private final String txId;
+        private final Instant time;
+
+        public AccountEvent(String eventId, AccountHistoryService.EventType eventType, AssetClass assetClass,
+                            String tokenIdentifier, String symbol, long quantity, String txId, Instant time) {
+            this.eventId = eventId;
+            this.eventType = eventType;
+            this.assetClass = assetClass;
+            this.tokenIdentifier = tokenIdentifier;
+            this.symbol = symbol;
+            this.quantity = quantity;
+            this.txId = txId;
+            this.time = time;
+        }
+
+        public String getEventId() {
+            return eventId;
+        }
+
+        public AccountHistoryService.EventType getEventType() {
+            return eventType;
+        }
+
+        public AssetClass getAssetClass() {
+            return assetClass;
+        }
+
+        public String getTokenIdentifier() {
+            return tokenIdentifier;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public String getTxId() {
+            return txId;
+        }
+
+        public Instant getTime() {
+            return time;
+        }
+
+        @Override
+        public String toString() {
+            return "AccountEvent(eventType=" + eventType + ", assetClass=" + assetClass + ", symbol=" + symbol +
+                    ", quantity=" + quantity + ", txId=" + txId + ", time=" + time + ")";
+        }
+    }
+
+    @CordaSerializable
+    public static class AccountHistoryPage {
+        private final List<AccountEvent> events;
+        private final String nextCursor;
+
+        public AccountHistoryPage(List<AccountEvent> events, String nextCursor) {
+            this.events = events;
+            this.nextCursor = nextCursor;
+        }
+
+        public List<AccountEvent> getEvents() {
+            return events;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        @Override
+        public String toString() {
+            return "AccountHistoryPage(events=" + events + ", nextCursor=" + nextCursor + ")";
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.accounts.workflows.flows.RequestKeyForAccount;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.MoveFungibleTokens;
+import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
+import net.corda.core.contracts.Amount;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.AnonymousParty;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.IdentityService;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gives tokens to accounts and takes them from accounts.
+ *
+ * An account holds its tokens under keys of its own, issued by the account's host, so the vault can tell the accounts
+ * of one node apart: balances, reports and the account history all go by these keys.
+ */
+final class AccountHoldings {
+
+    private AccountHoldings() { }
+
+    /**
+     * A key of the account: one this node already knows to belong to it, or else a fresh one from its host, which
+     * records which account it belongs to. Reusing the key spares a move to an account of another node the round trip
+     * to its host, at the price of linking the account's holdings to each other.
+     */
+    @Suspendable
+    static AnonymousParty accountKey(FlowLogic<?> flow, AccountInfo account) {
+        PublicKey known = knownKey(flow.getServiceHub(), account);
+        return known != null ? new AnonymousParty(known) : flow.subFlow(new RequestKeyForAccount(account));
+    }
+
+    private static PublicKey knownKey(ServiceHub serviceHub, AccountInfo account) {
+        IdentityService identityService = serviceHub.getIdentityService();
+        for (PublicKey key : identityService.publicKeysForExternalId(account.getIdentifier().getId())) {
+            if (account.getHost().equals(identityService.partyFromKey(key))) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    static QueryCriteria heldBy(AccountInfo account) {
+        return new QueryCriteria.VaultQueryCriteria().withExternalIds(Collections.singletonList(account.getIdentifier().getId()));
+    }
+
+    /**
+     * Moves the tokens out of the given account of ours, with the change going back to it.
+     */
+    @Suspendable
+    static SignedTransaction move(FlowLogic<?> flow, List<PartyAndAmount<TokenType>> moves, AccountInfo from) {
+        if (!from.getHost().equals(flow.getOurIdentity())) {
+            throw new IllegalArgumentException("Account \"" + from.getName() + "\" is not hosted by this node");
+        }
+        return flow.subFlow(new MoveFungibleTokens(moves, Collections.emptyList(), heldBy(from), accountKey(flow, from)));
+    }
+
+    @Suspendable
+    static SignedTransaction move(FlowLogic<?> flow, Amount<TokenType> amount, AbstractParty recipient, AccountInfo from) {
+        return move(flow, Collections.singletonList(new PartyAndAmount<>(recipient, amount)), from);
+    }
+}
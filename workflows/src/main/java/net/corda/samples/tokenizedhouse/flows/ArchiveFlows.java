@@ -0,0 +1,167 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowExternalOperation;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.flows.StartableByService;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.ArchiveSegmentStore;
+import net.corda.samples.tokenizedhouse.services.ArchiveService;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Archive consumed token states to cold storage and look them up again.
+ */
+public class ArchiveFlows {
+
+    /**
+     *  Archive one batch of consumed token states older than the retention window
+     */
+    @StartableByRPC
+    @StartableByService
+    public static class ArchiveConsumedStatesFlow extends FlowLogic<Integer> {
+
+        @Override
+        @Suspendable
+        public Integer call() throws FlowException {
+            try {
+                return await(new ArchiveBatchOperation(getServiceHub().cordaService(ArchiveService.class)));
+            } catch (UncheckedIOException e) {
+                throw new FlowException("Archiving consumed token states failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Runs a batch off the flow's thread, so it commits in a database transaction of its own before the next batch of
+     * another run may start.
+     */
+    static class ArchiveBatchOperation implements FlowExternalOperation<Integer> {
+        private final ArchiveService archive;
+
+        ArchiveBatchOperation(ArchiveService archive) {
+            this.archive = archive;
+        }
+
+        @NotNull
+        @Override
+        public Integer execute(@NotNull String deduplicationId) {
+            try {
+                return archive.archiveBatch();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     *  Look up archived states by the id of the transaction that created them
+     */
+    @StartableByRPC
+    public static class GetArchivedByTransaction extends FlowLogic<List<ArchivedState>> {
+        private final String txId;
+
+        public GetArchivedByTransaction(String txId) {
+            this.txId = txId;
+        }
+
+        @Override
+        @Suspendable
+        public List<ArchivedState> call() throws FlowException {
+            try {
+                return toArchivedStates(getServiceHub().cordaService(ArchiveService.class).findByTransaction(txId));
+            } catch (IOException e) {
+                throw new FlowException("Reading the token archive failed", e);
+            }
+        }
+    }
+
+    /**
+     *  Look up archived states by linear id: the versions of a token type, and the tokens issued against it
+     */
+    @StartableByRPC
+    public static class GetArchivedByLinearId extends FlowLogic<List<ArchivedState>> {
+        private final String linearId;
+
+        public GetArchivedByLinearId(String linearId) {
+            this.linearId = linearId;
+        }
+
+        @Override
+        @Suspendable
+        public List<ArchivedState> call() throws FlowException {
+            try {
+                return toArchivedStates(getServiceHub().cordaService(ArchiveService.class).findByLinearId(linearId));
+            } catch (IOException e) {
+                throw new FlowException("Reading the token archive failed", e);
+            }
+        }
+    }
+
+    @CordaSerializable
+    public static class ArchivedState {
+        private final String txId;
+        private final int outputIndex;
+        private final String stateClass;
+        private final String linearId;
+        private final Instant recordedAt;
+        private final Instant consumedAt;
+        private final SignedTransaction transaction;
+
+        public ArchivedState(String txId, int outputIndex, String stateClass, String linearId, Instant recordedAt,
+                             Instant consumedAt, SignedTransaction transaction) {
+            this.txId = txId;
+            this.outputIndex = outputIndex;
+            this.stateClass = stateClass;
+            this.linearId = linearId;
+            this.recordedAt = recordedAt;
+            this.consumedAt = consumedAt;
+            this.transaction = transaction;
+        }
+
+        public String getTxId() {
+            return txId;
+        }
+
+        public int getOutputIndex() {
+            return outputIndex;
+        }
+
+        public String getStateClass() {
+            return stateClass;
+        }
+
+        public String getLinearId() {
+            return linearId;
+        }
+
+        public Instant getRecordedAt() {
+            return recordedAt;
+        }
+
+        public Instant getConsumedAt() {
+            return consumedAt;
+        }
+
+        public SignedTransaction getTransaction() {
+            return transaction;
+        }
+    }
+
+    private static List<ArchivedState> toArchivedStates(List<ArchiveSegmentStore.Entry> entries) {
+        return entries.stream()
+                .map(entry -> new ArchivedState(entry.getTxId(), entry.getOutputIndex(), entry.getStateClass(),
+                        entry.getLinearId(), Instant.ofEpochMilli(entry.getRecordedAt()),
+                        Instant.ofEpochMilli(entry.getConsumedAt()), ArchiveService.deserializeTransaction(entry.getTransaction())))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,49 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.r3.corda.lib.tokens.contracts.states.EvolvableTokenType;
+import net.corda.core.schemas.PersistentState;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.samples.tokenizedhouse.schemas.TokenTypeSchemaV1;
+import net.corda.samples.tokenizedhouse.states.FungibleCassinoTokenState;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+
+/**
+ * The two token families of this CorDapp, with the state class and schema table backing each of them.
+ */
+@CordaSerializable
+public enum AssetClass {
+    HOUSE(FungibleHouseTokenState.class, TokenTypeSchemaV1.PersistentHouseTokenType.class, "house_token_type"),
+    CASSINO(FungibleCassinoTokenState.class, TokenTypeSchemaV1.PersistentCassinoTokenType.class, "cassino_token_type");
+
+    private final Class<? extends EvolvableTokenType> tokenTypeClass;
+    private final Class<? extends PersistentState> schemaEntity;
+    private final String tableName;
+
+    AssetClass(Class<? extends EvolvableTokenType> tokenTypeClass, Class<? extends PersistentState> schemaEntity,
+               String tableName) {
+        this.tokenTypeClass = tokenTypeClass;
+        this.schemaEntity = schemaEntity;
+        this.tableName = tableName;
+    }
+
+    public Class<? extends EvolvableTokenType> getTokenTypeClass() {
+        return tokenTypeClass;
+    }
+
+    public Class<? extends PersistentState> getSchemaEntity() {
+        return schemaEntity;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public static AssetClass forTokenType(Class<? extends EvolvableTokenType> tokenTypeClass) {
+        for (AssetClass assetClass : values()) {
+            if (assetClass.tokenTypeClass.equals(tokenTypeClass)) {
+                return assetClass;
+            }
+        }
+        throw new IllegalArgumentException("No asset class for token type " + tokenTypeClass.getName());
+    }
+}
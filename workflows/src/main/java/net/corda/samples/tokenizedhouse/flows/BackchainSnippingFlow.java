@@ -0,0 +1,671 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.tokens.contracts.commands.IssueTokenCommand;
+import com.r3.corda.lib.tokens.contracts.commands.RedeemTokenCommand;
+import com.r3.corda.lib.tokens.contracts.states.AbstractToken;
+import com.r3.corda.lib.tokens.contracts.states.EvolvableTokenType;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.redeem.RedeemTokensFlow;
+import com.r3.corda.lib.tokens.workflows.flows.redeem.RedeemTokensFlowHandler;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.IssueTokens;
+import com.r3.corda.lib.tokens.workflows.utilities.FungibleTokenBuilder;
+import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
+import kotlin.Unit;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.ChainSnipSchemaV1.PersistentPendingReissue;
+import net.corda.samples.tokenizedhouse.services.ChainSnipSchemaV1.PersistentSnipRequest;
+import net.corda.samples.tokenizedhouse.services.ChainSnipSchemaV1.PersistentSnipRequestRef;
+import net.corda.samples.tokenizedhouse.services.NodeFlows;
+import net.corda.samples.tokenizedhouse.states.FungibleCassinoTokenState;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.*;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+
+/**
+ * Report and snip the transaction backchain of house and cassino holdings.
+ *
+ * Every move adds a transaction to the chain a new holder has to resolve. Snipping redeems a deep holding with its
+ * issuer and has the issuer re-issue the same quantity to the same holder, so the new token's history starts again at
+ * a single issuance. Before anything is redeemed the issuer checks the holdings' depth itself and records them as a
+ * snip request; it re-issues only a redemption that spends exactly the holdings of a request, and only once. The
+ * redemption and the re-issuance are two transactions: the holder records every redemption until its re-issuance
+ * arrives, and can ask for it again with {@link ReissueSnippedRedemption}.
+ */
+public class BackchainSnippingFlow {
+
+    /** Key in the CorDapp config holding the chain depth from which a holding gets snipped. */
+    public static final String THRESHOLD_CONFIG_KEY = "snipChainDepthThreshold";
+    public static final int DEFAULT_THRESHOLD = 50;
+
+    private static final String TAKE_OVER_QUERY =
+            "UPDATE snip_request SET flow_id = ? WHERE request_id = ? AND reissue_tx_id IS NULL AND flow_id = ?";
+
+    @CordaSerializable
+    public static class HoldingDepth {
+        private final StateRef stateRef;
+        private final AbstractParty holder;
+        private final Party issuer;
+        private final long quantity;
+        private final int depth;
+
+        public HoldingDepth(StateRef stateRef, AbstractParty holder, Party issuer, long quantity, int depth) {
+            this.stateRef = stateRef;
+            this.holder = holder;
+            this.issuer = issuer;
+            this.quantity = quantity;
+            this.depth = depth;
+        }
+
+        public StateRef getStateRef() {
+            return stateRef;
+        }
+
+        public AbstractParty getHolder() {
+            return holder;
+        }
+
+        public Party getIssuer() {
+            return issuer;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        @Override
+        public String toString() {
+            return "HoldingDepth(stateRef=" + stateRef + ", holder=" + holder + ", issuer=" + issuer +
+                    ", quantity=" + quantity + ", depth=" + depth + ")";
+        }
+    }
+
+    /**
+     *  Report the backchain depth of every holding of a token type
+     */
+    abstract static class AbstractChainDepthFlow<T extends EvolvableTokenType> extends FlowLogic<List<HoldingDepth>> {
+        private final Class<T> tokenTypeClass;
+        private final String symbol;
+
+        AbstractChainDepthFlow(Class<T> tokenTypeClass, String symbol) {
+            this.tokenTypeClass = tokenTypeClass;
+            this.symbol = symbol;
+        }
+
+        @Override
+        @Suspendable
+        public List<HoldingDepth> call() throws FlowException {
+            TokenPointer<T> tokenPointer = VaultLookups.pointerForSymbol(getServiceHub(), tokenTypeClass, symbol);
+            return holdingDepths(getServiceHub(), tokenPointer, Integer.MAX_VALUE);
+        }
+    }
+
+    @StartableByRPC
+    public static class GetHouseTokenChainDepth extends AbstractChainDepthFlow<FungibleHouseTokenState> {
+        public GetHouseTokenChainDepth(String symbol) {
+            super(FungibleHouseTokenState.class, symbol);
+        }
+    }
+
+    @StartableByRPC
+    public static class GetCassinoTokenChainDepth extends AbstractChainDepthFlow<FungibleCassinoTokenState> {
+        public GetCassinoTokenChainDepth(String symbol) {
+            super(FungibleCassinoTokenState.class, symbol);
+        }
+    }
+
+    /**
+     *  Redeem the holdings of a token type whose chain is at least the threshold deep, and have each issuer
+     *  re-issue them. Run by the holder; returns the ids of the re-issuance transactions. The issuer checks the depth
+     *  against its own threshold too, so a lower threshold than the issuer's gets the shallower holdings rejected.
+     */
+    abstract static class AbstractSnipTokenChainFlow<T extends EvolvableTokenType> extends FlowLogic<List<SecureHash>> {
+        private final Class<T> tokenTypeClass;
+        private final String symbol;
+        private final Integer threshold;
+
+        AbstractSnipTokenChainFlow(Class<T> tokenTypeClass, String symbol, Integer threshold) {
+            this.tokenTypeClass = tokenTypeClass;
+            this.symbol = symbol;
+            this.threshold = threshold;
+        }
+
+        @Override
+        @Suspendable
+        public List<SecureHash> call() throws FlowException {
+            int depthThreshold = threshold != null ? threshold : configuredThreshold(getServiceHub());
+            TokenPointer<T> tokenPointer = VaultLookups.pointerForSymbol(getServiceHub(), tokenTypeClass, symbol);
+            Map<Party, List<StateRef>> deepHoldings = deepHoldingsByIssuer(getServiceHub(), tokenPointer, depthThreshold, getOurIdentity());
+
+            List<SecureHash> reissued = new ArrayList<>();
+            for (Map.Entry<Party, List<StateRef>> entry : deepHoldings.entrySet()) {
+                Party issuer = entry.getKey();
+                List<StateAndRef<AbstractToken>> holdings = new ArrayList<>();
+                for (StateRef stateRef : entry.getValue()) {
+                    holdings.add(getServiceHub().toStateAndRef(stateRef));
+                }
+
+                // The issuer records the holdings it agrees to re-issue before any of them is redeemed
+                FlowSession issuerSession = initiateFlow(issuer);
+                subFlow(new SendStateAndRefFlow(issuerSession, new ArrayList<>(holdings)));
+                issuerSession.receive(String.class).unwrap(it -> it);
+
+                // Only the approved holdings are spent, so the redemption needs no change output
+                SignedTransaction redeemTx = subFlow(new RedeemTokensFlow(holdings, null, issuerSession, Collections.emptyList()));
+                // Committed with the checkpoint taken before waiting for the re-issuance, so it can be retried
+                getServiceHub().withEntityManager((EntityManager em) -> {
+                    em.persist(new PersistentPendingReissue(redeemTx.getId().toString(), issuer.getName().toString(), Instant.now()));
+                });
+
+                try {
+                    SecureHash reissueTxId = issuerSession.receive(SecureHash.class).unwrap(it -> it);
+                    reissued.add(reissueReceived(getServiceHub(), redeemTx.getId(), reissueTxId));
+                } catch (FlowException | UnexpectedFlowEndException e) {
+                    throw new FlowException("Redemption " + redeemTx.getId() + " was not re-issued by " + issuer.getName() +
+                            ", retry with ReissueSnippedRedemption: " + e.getMessage(), e);
+                }
+            }
+            return reissued;
+        }
+    }
+
+    @StartableByRPC
+    @InitiatingFlow
+    public static class SnipHouseTokenChainFlow extends AbstractSnipTokenChainFlow<FungibleHouseTokenState> {
+        public SnipHouseTokenChainFlow(String symbol, Integer threshold) {
+            super(FungibleHouseTokenState.class, symbol, threshold);
+        }
+
+        public SnipHouseTokenChainFlow(String symbol) {
+            this(symbol, null);
+        }
+    }
+
+    @StartableByRPC
+    @InitiatingFlow
+    public static class SnipCassinoTokenChainFlow extends AbstractSnipTokenChainFlow<FungibleCassinoTokenState> {
+        public SnipCassinoTokenChainFlow(String symbol, Integer threshold) {
+            super(FungibleCassinoTokenState.class, symbol, threshold);
+        }
+
+        public SnipCassinoTokenChainFlow(String symbol) {
+            this(symbol, null);
+        }
+    }
+
+    /**
+     *  Ask the issuer again for the re-issuance of a redemption made by a snip flow that did not receive it. The
+     *  issuer answers a redemption it already re-issued with the original re-issuance, so this is safe to repeat.
+     */
+    @StartableByRPC
+    @InitiatingFlow
+    public static class ReissueSnippedRedemption extends FlowLogic<SecureHash> {
+        private final SecureHash redeemTxId;
+
+        public ReissueSnippedRedemption(SecureHash redeemTxId) {
+            this.redeemTxId = redeemTxId;
+        }
+
+        @Override
+        @Suspendable
+        public SecureHash call() throws FlowException {
+            PersistentPendingReissue pending = getServiceHub().withEntityManager((EntityManager em) ->
+                    em.find(PersistentPendingReissue.class, redeemTxId.toString()));
+            if (pending == null) {
+                throw new FlowException("No re-issuance of redemption " + redeemTxId + " is pending");
+            }
+            Party issuer = getServiceHub().getIdentityService()
+                    .wellKnownPartyFromX500Name(CordaX500Name.parse(pending.getIssuer()));
+            if (issuer == null) {
+                throw new FlowException("Issuer " + pending.getIssuer() + " of redemption " + redeemTxId + " is unknown");
+            }
+            SecureHash reissueTxId = initiateFlow(issuer).sendAndReceive(SecureHash.class, redeemTxId).unwrap(it -> it);
+            return reissueReceived(getServiceHub(), redeemTxId, reissueTxId);
+        }
+    }
+
+    /**
+     *  List the redemptions made by a snip flow whose re-issuance has not been received yet
+     */
+    @StartableByRPC
+    public static class GetPendingReissues extends FlowLogic<List<SecureHash>> {
+        @Override
+        @Suspendable
+        public List<SecureHash> call() {
+            List<PersistentPendingReissue> pending = getServiceHub().withEntityManager((EntityManager em) -> em
+                    .createQuery("SELECT p FROM " + PersistentPendingReissue.class.getName() + " p ORDER BY p.recordedAt",
+                            PersistentPendingReissue.class)
+                    .getResultList());
+            List<SecureHash> redeemTxIds = new ArrayList<>();
+            for (PersistentPendingReissue row : pending) {
+                redeemTxIds.add(SecureHash.parse(row.getRedeemTxId()));
+            }
+            return redeemTxIds;
+        }
+    }
+
+    /**
+     *  Issuer side: re-issue what the redemption of a recorded snip request destroyed, once
+     */
+    abstract static class AbstractReissueResponder extends FlowLogic<Unit> {
+        final FlowSession holderSession;
+
+        AbstractReissueResponder(FlowSession holderSession) {
+            this.holderSession = holderSession;
+        }
+
+        /**
+         * Returns the re-issuance of the request, issuing it unless this flow or an earlier one for the same request
+         * already did. An earlier flow that is still running keeps the request.
+         */
+        @Suspendable
+        SecureHash reissue(String requestId) throws FlowException {
+            String flowId = getRunId().getUuid().toString();
+            PersistentSnipRequest request = getServiceHub().withEntityManager((EntityManager em) ->
+                    em.find(PersistentSnipRequest.class, requestId));
+            if (request.getReissueTxId() != null) {
+                return SecureHash.parse(request.getReissueTxId());
+            }
+            if (!flowId.equals(request.getFlowId())) {
+                SecureHash recorded = recordedReissue(getServiceHub(), request.getFlowId());
+                if (recorded != null) {
+                    // An earlier attempt re-issued the tokens but failed before recording it
+                    getServiceHub().withEntityManager((EntityManager em) -> {
+                        em.find(PersistentSnipRequest.class, requestId).setReissueTxId(recorded.toString());
+                    });
+                    return recorded;
+                }
+                if (NodeFlows.isLive(getServiceHub(), request.getFlowId())
+                        || !takeOver(getServiceHub(), requestId, request.getFlowId(), flowId)) {
+                    throw new FlowException("Snip request " + requestId + " is already being re-issued");
+                }
+            }
+
+            List<AbstractToken> replacements = replacementTokens(getServiceHub(), SecureHash.parse(request.getRedeemTxId()),
+                    getOurIdentity(), holderSession.getCounterparty());
+            SignedTransaction reissueTx = subFlow(new IssueTokens(replacements));
+            getServiceHub().withEntityManager((EntityManager em) -> {
+                em.find(PersistentSnipRequest.class, requestId).setReissueTxId(reissueTx.getId().toString());
+            });
+            return reissueTx.getId();
+        }
+    }
+
+    /**
+     *  Issuer side of a snip: approve and record the holdings, take part in their redemption and re-issue them
+     */
+    abstract static class AbstractSnipTokenChainResponder extends AbstractReissueResponder {
+        AbstractSnipTokenChainResponder(FlowSession holderSession) {
+            super(holderSession);
+        }
+
+        @Override
+        @Suspendable
+        public Unit call() throws FlowException {
+            Party holder = holderSession.getCounterparty();
+            List<StateAndRef<ContractState>> holdings = subFlow(new ReceiveStateAndRefFlow<ContractState>(holderSession));
+            String requestId = recordRequest(getServiceHub(), holdings, getOurIdentity(), holder,
+                    getRunId().getUuid().toString());
+            holderSession.send(requestId);
+
+            // The handler signs any redemption of our tokens by their holder; only the approved one gets re-issued
+            SignedTransaction redeemTx = subFlow(new RedeemTokensFlowHandler(holderSession));
+            if (redeemTx == null) {
+                throw new FlowException("Snip request " + requestId + " was not redeemed");
+            }
+            linkRedemption(getServiceHub(), requestId, redeemTx, getOurIdentity(), holder);
+            holderSession.send(reissue(requestId));
+            return Unit.INSTANCE;
+        }
+    }
+
+    @InitiatedBy(SnipHouseTokenChainFlow.class)
+    public static class SnipHouseTokenChainResponder extends AbstractSnipTokenChainResponder {
+        public SnipHouseTokenChainResponder(FlowSession holderSession) {
+            super(holderSession);
+        }
+    }
+
+    @InitiatedBy(SnipCassinoTokenChainFlow.class)
+    public static class SnipCassinoTokenChainResponder extends AbstractSnipTokenChainResponder {
+        public SnipCassinoTokenChainResponder(FlowSession holderSession) {
+            super(holderSession);
+        }
+    }
+
+    /**
+     *  Issuer side of a retry: only a redemption of holdings recorded for the same holder is re-issued
+     */
+    @InitiatedBy(ReissueSnippedRedemption.class)
+    public static class ReissueSnippedRedemptionResponder extends AbstractReissueResponder {
+        public ReissueSnippedRedemptionResponder(FlowSession holderSession) {
+            super(holderSession);
+        }
+
+        @Override
+        @Suspendable
+        public Unit call() throws FlowException {
+            SecureHash redeemTxId = holderSession.receive(SecureHash.class).unwrap(it -> it);
+            String requestId = requestOf(getServiceHub(), redeemTxId, getOurIdentity(), holderSession.getCounterparty());
+            holderSession.send(reissue(requestId));
+            return Unit.INSTANCE;
+        }
+    }
+
+    /** Holder side: the re-issuance arrived, so the redemption is no longer pending. */
+    private static SecureHash reissueReceived(ServiceHub serviceHub, SecureHash redeemTxId, SecureHash reissueTxId) {
+        serviceHub.withEntityManager((EntityManager em) -> {
+            PersistentPendingReissue pending = em.find(PersistentPendingReissue.class, redeemTxId.toString());
+            if (pending != null) {
+                em.remove(pending);
+            }
+        });
+        return reissueTxId;
+    }
+
+    /**
+     * Checks the holdings are deep enough by our own threshold and are tokens we issued to the holder, then records
+     * them as one request. A holding can belong to one request only, unless that request's flow died before the
+     * holding was redeemed.
+     */
+    static String recordRequest(ServiceHub serviceHub, List<StateAndRef<ContractState>> holdings, Party issuer,
+                                Party holder, String flowId) throws FlowException {
+        if (holdings.isEmpty()) {
+            throw new FlowException("No holdings to snip");
+        }
+        int threshold = configuredThreshold(serviceHub);
+        String tokenIdentifier = null;
+        long quantity = 0;
+        for (StateAndRef<ContractState> holding : holdings) {
+            ContractState state = holding.getState().getData();
+            if (!(state instanceof FungibleToken) || !((FungibleToken) state).getIssuer().equals(issuer)) {
+                throw new FlowException("Holding " + holding.getRef() + " is not a token issued by " + issuer);
+            }
+            FungibleToken token = (FungibleToken) state;
+            if (!holder.equals(serviceHub.getIdentityService().wellKnownPartyFromAnonymous(token.getHolder()))) {
+                throw new FlowException("Holding " + holding.getRef() + " is not held by " + holder);
+            }
+            if (tokenIdentifier != null && !tokenIdentifier.equals(token.getTokenType().getTokenIdentifier())) {
+                throw new FlowException("Holdings to snip are of more than one token type");
+            }
+            int depth = chainDepth(serviceHub, holding.getRef().getTxhash(), threshold);
+            if (depth < threshold) {
+                throw new FlowException("Holding " + holding.getRef() + " is " + depth + " transactions deep, below " + threshold);
+            }
+            tokenIdentifier = token.getTokenType().getTokenIdentifier();
+            quantity += token.getAmount().getQuantity();
+        }
+
+        String requestId = UUID.randomUUID().toString();
+        String snippedTokenIdentifier = tokenIdentifier;
+        long snippedQuantity = quantity;
+        for (StateAndRef<ContractState> holding : holdings) {
+            PersistentSnipRequestRef existing = serviceHub.withEntityManager((EntityManager em) ->
+                    em.find(PersistentSnipRequestRef.class, holding.getRef().toString()));
+            if (existing != null) {
+                abandon(serviceHub, existing.getRequestId(), holding.getRef());
+            }
+        }
+        serviceHub.withEntityManager((EntityManager em) -> {
+            em.persist(new PersistentSnipRequest(requestId, holder.getName().toString(), snippedTokenIdentifier,
+                    snippedQuantity, flowId, Instant.now()));
+            for (StateAndRef<ContractState> holding : holdings) {
+                em.persist(new PersistentSnipRequestRef(holding.getRef().toString(), requestId));
+            }
+        });
+        return requestId;
+    }
+
+    /** Drops an earlier request for the same holding whose flow died before the holding was redeemed. */
+    private static void abandon(ServiceHub serviceHub, String requestId, StateRef stateRef) throws FlowException {
+        PersistentSnipRequest request = serviceHub.withEntityManager((EntityManager em) ->
+                em.find(PersistentSnipRequest.class, requestId));
+        if (request.getRedeemTxId() != null || NodeFlows.isLive(serviceHub, request.getFlowId())) {
+            throw new FlowException("Holding " + stateRef + " is already part of snip request " + requestId);
+        }
+        serviceHub.withEntityManager((EntityManager em) -> {
+            em.createQuery("DELETE FROM " + PersistentSnipRequestRef.class.getName() + " r WHERE r.requestId = :requestId")
+                    .setParameter("requestId", requestId)
+                    .executeUpdate();
+            em.remove(em.find(PersistentSnipRequest.class, requestId));
+        });
+    }
+
+    /**
+     * Links a request to its redemption, which must spend exactly the recorded holdings and destroy all of them. As a
+     * holding belongs to one request only, no other request can be linked to the same redemption.
+     */
+    static void linkRedemption(ServiceHub serviceHub, String requestId, SignedTransaction redeemTx, Party issuer,
+                               Party holder) throws FlowException {
+        PersistentSnipRequest request = serviceHub.withEntityManager((EntityManager em) ->
+                em.find(PersistentSnipRequest.class, requestId));
+        List<String> approved = serviceHub.withEntityManager((EntityManager em) -> em
+                .createQuery("SELECT r.stateRef FROM " + PersistentSnipRequestRef.class.getName() + " r WHERE r.requestId = :requestId",
+                        String.class)
+                .setParameter("requestId", requestId)
+                .getResultList());
+        Set<String> spent = new HashSet<>();
+        for (StateRef input : redeemTx.getInputs()) {
+            spent.add(input.toString());
+        }
+        if (!spent.equals(new HashSet<>(approved))) {
+            throw new FlowException("Redemption " + redeemTx.getId() + " does not spend the holdings of snip request " + requestId);
+        }
+
+        long destroyed = 0;
+        for (AbstractToken replacement : replacementTokens(serviceHub, redeemTx.getId(), issuer, holder)) {
+            if (!replacement.getTokenType().getTokenIdentifier().equals(request.getTokenIdentifier())) {
+                throw new FlowException("Redemption " + redeemTx.getId() + " is not of the token type of snip request " + requestId);
+            }
+            destroyed += ((FungibleToken) replacement).getAmount().getQuantity();
+        }
+        if (destroyed != request.getQuantity()) {
+            throw new FlowException("Redemption " + redeemTx.getId() + " destroys " + destroyed + " tokens, snip request " +
+                    requestId + " recorded " + request.getQuantity());
+        }
+        serviceHub.withEntityManager((EntityManager em) -> {
+            em.find(PersistentSnipRequest.class, requestId).setRedeemTxId(redeemTx.getId().toString());
+        });
+    }
+
+    /**
+     * The snip request a redemption by the holder belongs to. A redemption the request's flow did not get to link is
+     * linked now, so it passes the same checks; anything else is rejected.
+     */
+    static String requestOf(ServiceHub serviceHub, SecureHash redeemTxId, Party issuer, Party holder) throws FlowException {
+        List<PersistentSnipRequest> linked = serviceHub.withEntityManager((EntityManager em) -> em
+                .createQuery("SELECT s FROM " + PersistentSnipRequest.class.getName() + " s WHERE s.redeemTxId = :redeemTxId",
+                        PersistentSnipRequest.class)
+                .setParameter("redeemTxId", redeemTxId.toString())
+                .getResultList());
+        PersistentSnipRequest request = linked.isEmpty() ? null : linked.get(0);
+        SignedTransaction redeemTx = serviceHub.getValidatedTransactions().getTransaction(redeemTxId);
+        if (request == null && redeemTx != null && !redeemTx.getInputs().isEmpty()) {
+            PersistentSnipRequestRef ref = serviceHub.withEntityManager((EntityManager em) ->
+                    em.find(PersistentSnipRequestRef.class, redeemTx.getInputs().get(0).toString()));
+            if (ref != null) {
+                request = serviceHub.withEntityManager((EntityManager em) ->
+                        em.find(PersistentSnipRequest.class, ref.getRequestId()));
+            }
+        }
+        if (request == null || !request.getHolder().equals(holder.getName().toString())) {
+            throw new FlowException("Redemption " + redeemTxId + " has no snip request by " + holder);
+        }
+        if (request.getRedeemTxId() == null) {
+            if (redeemTx == null) {
+                throw new FlowException("Redemption " + redeemTxId + " is not known to the issuer");
+            }
+            linkRedemption(serviceHub, request.getRequestId(), redeemTx, issuer, holder);
+        }
+        return request.getRequestId();
+    }
+
+    /**
+     * The re-issuance recorded by an earlier responder. Besides it the responder records the redemption and the
+     * backchain it resolved, neither of which issues tokens.
+     */
+    private static SecureHash recordedReissue(ServiceHub serviceHub, String flowId) {
+        for (SecureHash txId : NodeFlows.recordedTransactions(serviceHub, flowId)) {
+            SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(txId);
+            if (stx != null && stx.getTx().getCommands().stream().anyMatch(command -> command.getValue() instanceof IssueTokenCommand)) {
+                return stx.getId();
+            }
+        }
+        return null;
+    }
+
+    /** Claims a request whose re-issuing flow died; fails if another responder claimed it first. */
+    private static boolean takeOver(ServiceHub serviceHub, String requestId, String deadFlowId, String flowId) {
+        int updated = serviceHub.withEntityManager((EntityManager em) -> em.createNativeQuery(TAKE_OVER_QUERY)
+                .setParameter(1, flowId)
+                .setParameter(2, requestId)
+                .setParameter(3, deadFlowId)
+                .executeUpdate());
+        return updated == 1;
+    }
+
+    static int configuredThreshold(ServiceHub serviceHub) {
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        return config.exists(THRESHOLD_CONFIG_KEY) ? config.getInt(THRESHOLD_CONFIG_KEY) : DEFAULT_THRESHOLD;
+    }
+
+    /**
+     * Length of the longest chain of transactions behind txId, following inputs only. Each level is de-duplicated, so
+     * the walk costs at most depth x distinct transactions, and it stops once limit is reached.
+     */
+    static int chainDepth(ServiceHub serviceHub, SecureHash txId, int limit) {
+        Set<SecureHash> level = Collections.singleton(txId);
+        int depth = 0;
+        while (!level.isEmpty() && depth < limit) {
+            depth++;
+            Set<SecureHash> previous = new HashSet<>();
+            for (SecureHash id : level) {
+                SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(id);
+                if (stx != null) {
+                    for (StateRef input : stx.getInputs()) {
+                        previous.add(input.getTxhash());
+                    }
+                }
+            }
+            level = previous;
+        }
+        return depth;
+    }
+
+    static List<HoldingDepth> holdingDepths(ServiceHub serviceHub, TokenPointer<?> tokenPointer, int limit) {
+        QueryCriteria criteria = QueryUtilities.tokenAmountCriteria(tokenPointer)
+                .and(new QueryCriteria.VaultQueryCriteria().withRelevancyStatus(Vault.RelevancyStatus.RELEVANT));
+        List<HoldingDepth> result = new ArrayList<>();
+        for (int page = DEFAULT_PAGE_NUM; ; page++) {
+            Vault.Page<FungibleToken> results = serviceHub.getVaultService()
+                    .queryBy(FungibleToken.class, criteria, new PageSpecification(page, DEFAULT_PAGE_SIZE));
+            for (StateAndRef<FungibleToken> holding : results.getStates()) {
+                FungibleToken token = holding.getState().getData();
+                result.add(new HoldingDepth(holding.getRef(), token.getHolder(), token.getIssuer(),
+                        token.getAmount().getQuantity(), chainDepth(serviceHub, holding.getRef().getTxhash(), limit)));
+            }
+            if ((long) page * DEFAULT_PAGE_SIZE >= results.getTotalStatesAvailable()) {
+                return result;
+            }
+        }
+    }
+
+    static Map<Party, List<StateRef>> deepHoldingsByIssuer(ServiceHub serviceHub, TokenPointer<?> tokenPointer,
+                                                           int threshold, Party us) {
+        Map<Party, List<StateRef>> byIssuer = new LinkedHashMap<>();
+        for (HoldingDepth holding : holdingDepths(serviceHub, tokenPointer, threshold)) {
+            // Tokens we issued to ourselves have nobody to re-issue them
+            if (holding.getDepth() >= threshold && !holding.getIssuer().equals(us)) {
+                byIssuer.computeIfAbsent(holding.getIssuer(), issuer -> new ArrayList<>()).add(holding.getStateRef());
+            }
+        }
+        return byIssuer;
+    }
+
+    /**
+     * Works out, per holder, how much of our tokens the redemption destroyed. Anything other than a redemption of
+     * tokens we issued to the counterparty is rejected, so a move can never be passed off as one.
+     */
+    static List<AbstractToken> replacementTokens(ServiceHub serviceHub, SecureHash redeemTxId, Party issuer,
+                                                 Party counterparty) throws FlowException {
+        SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(redeemTxId);
+        if (stx == null) {
+            throw new FlowException("Redemption " + redeemTxId + " is not known to the issuer");
+        }
+        if (stx.getTx().getCommands().stream().noneMatch(command -> command.getValue() instanceof RedeemTokenCommand)) {
+            throw new FlowException("Transaction " + redeemTxId + " is not a redemption");
+        }
+
+        TokenType tokenType = null;
+        Map<AbstractParty, Long> destroyed = new LinkedHashMap<>();
+        for (StateRef input : stx.getInputs()) {
+            ContractState state = serviceHub.toStateAndRef(input).getState().getData();
+            if (!(state instanceof FungibleToken) || !((FungibleToken) state).getIssuer().equals(issuer)) {
+                continue;
+            }
+            FungibleToken token = (FungibleToken) state;
+            if (!counterparty.equals(serviceHub.getIdentityService().wellKnownPartyFromAnonymous(token.getHolder()))) {
+                throw new FlowException("Redemption " + redeemTxId + " spends tokens not held by " + counterparty);
+            }
+            if (tokenType != null && !tokenType.equals(token.getTokenType())) {
+                throw new FlowException("Redemption " + redeemTxId + " spends more than one token type");
+            }
+            tokenType = token.getTokenType();
+            destroyed.merge(token.getHolder(), token.getAmount().getQuantity(), Long::sum);
+        }
+        if (tokenType == null) {
+            throw new FlowException("Redemption " + redeemTxId + " spends no tokens issued by " + issuer);
+        }
+        for (ContractState state : stx.getTx().getOutputStates()) {
+            if (state instanceof FungibleToken && ((FungibleToken) state).getIssuer().equals(issuer)
+                    && ((FungibleToken) state).getTokenType().equals(tokenType)) {
+                FungibleToken change = (FungibleToken) state;
+                if (!destroyed.containsKey(change.getHolder())) {
+                    throw new FlowException("Redemption " + redeemTxId + " moves tokens to " + change.getHolder());
+                }
+                destroyed.merge(change.getHolder(), -change.getAmount().getQuantity(), Long::sum);
+            }
+        }
+
+        List<AbstractToken> replacements = new ArrayList<>();
+        for (Map.Entry<AbstractParty, Long> entry : destroyed.entrySet()) {
+            if (entry.getValue() > 0) {
+                replacements.add(new FungibleTokenBuilder()
+                        .ofTokenType(tokenType)
+                        .issuedBy(issuer)
+                        .heldBy(entry.getKey())
+                        .withAmount(entry.getValue())
+                        .buildFungibleToken());
+            }
+        }
+        if (replacements.isEmpty()) {
+            throw new FlowException("Redemption " + redeemTxId + " destroys no tokens");
+        }
+        return replacements;
+    }
+}
@@ -0,0 +1,270 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.accounts.workflows.UtilitiesKt;
+import com.r3.corda.lib.accounts.workflows.flows.CreateAccount;
+import kotlin.Unit;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.Party;
+import net.corda.core.node.StatesToRecord;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.AccountShareService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Create many accounts and share them with a list of parties.
+ *
+ * The accounts SDK only allows one AccountInfo per creation transaction, but creating one needs no counterparty or
+ * notary, so creation stays local. What is batched is the sharing: every party gets all the new accounts over a single
+ * session, batchSize accounts per message, and the parties are served by concurrent child flows, at most
+ * maxConcurrency at a time. Only account ids are held while those child flows run. A party acknowledges every batch
+ * once it has recorded it, so each account's result lists the parties that have it, even when a party fails part way.
+ */
+@StartableByRPC
+public class BulkCreateAndShareAccountsFlow extends FlowLogic<List<BulkCreateAndShareAccountsFlow.AccountResult>> {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_CONCURRENCY = 8;
+
+    private final List<String> accountNames;
+    private final List<Party> partyToShareAccountInfoToList;
+    private final int batchSize;
+    private final int maxConcurrency;
+
+    public BulkCreateAndShareAccountsFlow(List<String> accountNames, List<Party> partyToShareAccountInfoToList,
+                                          int batchSize, int maxConcurrency) {
+        if (batchSize < 1 || maxConcurrency < 1) {
+            throw new IllegalArgumentException("batchSize and maxConcurrency must be positive");
+        }
+        this.accountNames = accountNames;
+        this.partyToShareAccountInfoToList = partyToShareAccountInfoToList;
+        this.batchSize = batchSize;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public BulkCreateAndShareAccountsFlow(List<String> accountNames, List<Party> partyToShareAccountInfoToList) {
+        this(accountNames, partyToShareAccountInfoToList, DEFAULT_BATCH_SIZE, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    @CordaSerializable
+    public enum AccountStatus { CREATED, ALREADY_EXISTS }
+
+    @CordaSerializable
+    public static class AccountResult {
+        private final String accountName;
+        private final UUID accountId;
+        private final AccountStatus status;
+        private final List<Party> sharedWith;
+        private final List<Party> shareFailedWith;
+
+        public AccountResult(String accountName, UUID accountId, AccountStatus status, List<Party> sharedWith,
+                             List<Party> shareFailedWith) {
+            this.accountName = accountName;
+            this.accountId = accountId;
+            this.status = status;
+            this.sharedWith = sharedWith;
+            this.shareFailedWith = shareFailedWith;
+        }
+
+        public String getAccountName() {
+            return accountName;
+        }
+
+        public UUID getAccountId() {
+            return accountId;
+        }
+
+        public AccountStatus getStatus() {
+            return status;
+        }
+
+        public List<Party> getSharedWith() {
+            return sharedWith;
+        }
+
+        public List<Party> getShareFailedWith() {
+            return shareFailedWith;
+        }
+
+        @Override
+        public String toString() {
+            return "AccountResult(accountName=" + accountName + ", accountId=" + accountId + ", status=" + status +
+                    ", sharedWith=" + sharedWith + ", shareFailedWith=" + shareFailedWith + ")";
+        }
+    }
+
+    @Override
+    @Suspendable
+    public List<AccountResult> call() throws FlowException {
+        List<UUID> accountIds = new ArrayList<>();
+        List<AccountStatus> statuses = new ArrayList<>();
+        for (String accountName : accountNames) {
+            UUID existing = ourAccountId(accountName);
+            if (existing != null) {
+                accountIds.add(existing);
+                statuses.add(AccountStatus.ALREADY_EXISTS);
+            } else {
+                //Call inbuilt CreateAccount flow to create the AccountInfo object
+                StateAndRef<AccountInfo> created = (StateAndRef<AccountInfo>) subFlow(new CreateAccount(accountName));
+                accountIds.add(created.getState().getData().getIdentifier().getId());
+                statuses.add(AccountStatus.CREATED);
+            }
+        }
+
+        Map<Party, List<UUID>> shared = await(new ShareAccountsOperation(
+                getServiceHub().cordaService(AccountShareService.class), accountIds, partyToShareAccountInfoToList,
+                batchSize, maxConcurrency));
+
+        List<AccountResult> results = new ArrayList<>();
+        for (int i = 0; i < accountNames.size(); i++) {
+            UUID accountId = accountIds.get(i);
+            List<Party> sharedWith = partyToShareAccountInfoToList.stream()
+                    .filter(party -> shared.getOrDefault(party, Collections.emptyList()).contains(accountId))
+                    .collect(Collectors.toList());
+            List<Party> shareFailedWith = partyToShareAccountInfoToList.stream()
+                    .filter(party -> !sharedWith.contains(party))
+                    .collect(Collectors.toList());
+            results.add(new AccountResult(accountNames.get(i), accountId, statuses.get(i), sharedWith, shareFailedWith));
+        }
+        return results;
+    }
+
+    private UUID ourAccountId(String accountName) {
+        return UtilitiesKt.getAccountService(this).accountInfo(accountName).stream()
+                .map(account -> account.getState().getData())
+                .filter(account -> account.getHost().equals(getOurIdentity()))
+                .map(account -> account.getIdentifier().getId())
+                .findFirst().orElse(null);
+    }
+
+    /**
+     * Hands the sharing to {@link AccountShareService} and suspends the flow until every party has been served.
+     */
+    static class ShareAccountsOperation implements FlowExternalAsyncOperation<Map<Party, List<UUID>>> {
+        private final AccountShareService shareService;
+        private final List<UUID> accountIds;
+        private final List<Party> parties;
+        private final int batchSize;
+        private final int maxConcurrency;
+
+        ShareAccountsOperation(AccountShareService shareService, List<UUID> accountIds, List<Party> parties,
+                               int batchSize, int maxConcurrency) {
+            this.shareService = shareService;
+            this.accountIds = accountIds;
+            this.parties = parties;
+            this.batchSize = batchSize;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<Map<Party, List<UUID>>> execute(@NotNull String deduplicationId) {
+            return shareService.shareWithAll(accountIds, parties, batchSize, maxConcurrency);
+        }
+    }
+
+    /**
+     *  Share a set of accounts with one party over a single session, in batches, and return the ids of the accounts
+     *  the party acknowledged
+     */
+    @StartableByService
+    @InitiatingFlow
+    public static class ShareAccountsBatchFlow extends FlowLogic<List<UUID>> {
+        private final Party party;
+        private final List<UUID> accountIds;
+        private final int batchSize;
+
+        public ShareAccountsBatchFlow(Party party, List<UUID> accountIds, int batchSize) {
+            this.party = party;
+            this.accountIds = accountIds;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        @Suspendable
+        public List<UUID> call() throws FlowException {
+            List<UUID> shared = new ArrayList<>();
+            FlowSession session = initiateFlow(party);
+            try {
+                session.send((accountIds.size() + batchSize - 1) / batchSize);
+                for (int from = 0; from < accountIds.size(); from += batchSize) {
+                    List<UUID> batch = new ArrayList<>(accountIds.subList(from, Math.min(from + batchSize, accountIds.size())));
+                    subFlow(new SendStateAndRefFlow(session, accountsById(batch)));
+                    session.receive(Boolean.class).unwrap(recorded -> recorded);
+                    shared.addAll(batch);
+                }
+            } catch (FlowException | UnexpectedFlowEndException e) {
+                // The batches acknowledged so far are recorded by the party all the same
+                getLogger().warn("Sharing accounts with {} stopped after {} of them", party, shared.size(), e);
+            }
+            return shared;
+        }
+
+        private List<StateAndRef<?>> accountsById(List<UUID> batch) throws FlowException {
+            List<StateAndRef<?>> accounts = new ArrayList<>();
+            for (UUID accountId : batch) {
+                StateAndRef<AccountInfo> account = UtilitiesKt.getAccountService(this).accountInfo(accountId);
+                if (account == null) {
+                    throw new FlowException("Account " + accountId + " not found from vault");
+                }
+                accounts.add(account);
+            }
+            return accounts;
+        }
+    }
+
+    @InitiatedBy(ShareAccountsBatchFlow.class)
+    public static class ShareAccountsBatchResponder extends FlowLogic<Unit> {
+        private final FlowSession counterSession;
+
+        public ShareAccountsBatchResponder(FlowSession counterSession) {
+            this.counterSession = counterSession;
+        }
+
+        @Override
+        @Suspendable
+        public Unit call() throws FlowException {
+            int batches = counterSession.receive(Integer.class).unwrap(it -> it);
+            for (int i = 0; i < batches; i++) {
+                List<StateAndRef<ContractState>> accounts = subFlow(new ReceiveStateAndRefFlow<ContractState>(counterSession));
+                recordAccounts(accounts);
+                counterSession.send(true);
+            }
+            return Unit.INSTANCE;
+        }
+
+        /**
+         * The account transactions were only stored as dependencies while resolving; record them again so the
+         * AccountInfo states land in our vault, as ShareAccountInfo would. Every state must be an account hosted by
+         * the sender, as the resolved transaction has it: the sender's copy of the state is not checked against it.
+         */
+        private void recordAccounts(List<StateAndRef<ContractState>> accounts) throws FlowException {
+            Party sender = counterSession.getCounterparty();
+            List<SignedTransaction> transactions = new ArrayList<>();
+            for (StateAndRef<ContractState> account : accounts) {
+                SignedTransaction stx = getServiceHub().getValidatedTransactions().getTransaction(account.getRef().getTxhash());
+                if (stx == null) {
+                    throw new FlowException("Transaction " + account.getRef().getTxhash() + " was not resolved");
+                }
+                ContractState state = stx.getTx().getOutputStates().get(account.getRef().getIndex());
+                if (!(state instanceof AccountInfo) || !((AccountInfo) state).getHost().equals(sender)) {
+                    throw new FlowException(account.getRef() + " is not an account hosted by " + sender);
+                }
+                transactions.add(stx);
+            }
+            getServiceHub().recordTransactions(StatesToRecord.ALL_VISIBLE, transactions);
+        }
+    }
+}
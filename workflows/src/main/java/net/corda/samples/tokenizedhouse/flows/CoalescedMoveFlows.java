@@ -0,0 +1,116 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.accounts.workflows.UtilitiesKt;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.MoveFungibleTokensHandler;
+import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
+import kotlin.Unit;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.*;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.MoveCoalescingService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Moves of one token type out of one account coalesced by {@link MoveCoalescingService} into a single transaction.
+ */
+public class CoalescedMoveFlows {
+
+    /**
+     * Hands a move to {@link MoveCoalescingService} and suspends the flow until the batch holding it has been notarised.
+     * After a node restart the same deduplication id is handed over again, and the service answers it with the
+     * outcome of the move it already started.
+     */
+    public static class CoalescedMoveOperation implements FlowExternalAsyncOperation<SignedTransaction> {
+        private final MoveCoalescingService coalescer;
+        private final Amount<TokenType> amount;
+        private final AbstractParty recipient;
+        private final UUID fromAccountId;
+
+        public CoalescedMoveOperation(MoveCoalescingService coalescer, Amount<TokenType> amount, AbstractParty recipient, UUID fromAccountId) {
+            this.coalescer = coalescer;
+            this.amount = amount;
+            this.recipient = recipient;
+            this.fromAccountId = fromAccountId;
+        }
+
+        @NotNull
+        @Override
+        public CompletableFuture<SignedTransaction> execute(@NotNull String deduplicationId) {
+            return coalescer.submit(deduplicationId, amount, recipient, fromAccountId);
+        }
+    }
+
+    /**
+     *  Move one token type out of one account to several holders with a single token selection and transaction
+     */
+    @StartableByService
+    @InitiatingFlow
+    public static class MoveBatchFlow extends FlowLogic<SignedTransaction> {
+        private final List<PartyAndAmount<TokenType>> moves;
+        private final UUID fromAccountId;
+        private final List<String> deduplicationIds;
+        private final UUID batchId;
+
+        public MoveBatchFlow(List<PartyAndAmount<TokenType>> moves, UUID fromAccountId, List<String> deduplicationIds,
+                             UUID batchId) {
+            this.moves = moves;
+            this.fromAccountId = fromAccountId;
+            this.deduplicationIds = deduplicationIds;
+            this.batchId = batchId;
+        }
+
+        @Override
+        @Suspendable
+        public SignedTransaction call() throws FlowException {
+            StateAndRef<AccountInfo> account = UtilitiesKt.getAccountService(this).accountInfo(fromAccountId);
+            if (account == null) {
+                throw new FlowException("Account " + fromAccountId + " does not exist");
+            }
+            AccountInfo fromAccount = account.getState().getData();
+
+            //a flow re-run from its start after a restart skips the moves a resumed caller has taken over meanwhile
+            MoveCoalescingService coalescer = getServiceHub().cordaService(MoveCoalescingService.class);
+            List<String> claimed = coalescer.claimBatch(deduplicationIds, batchId, getRunId().getUuid());
+            List<PartyAndAmount<TokenType>> claimedMoves = new ArrayList<>();
+            for (int i = 0; i < moves.size(); i++) {
+                if (claimed.contains(deduplicationIds.get(i))) {
+                    claimedMoves.add(moves.get(i));
+                }
+            }
+            if (claimedMoves.isEmpty()) {
+                throw new FlowException("Every move of batch " + batchId + " has been taken over");
+            }
+
+            //use built in flow to move fungible tokens to all the holders in one transaction
+            SignedTransaction stx = AccountHoldings.move(this, claimedMoves, fromAccount);
+            coalescer.completeBatch(claimed, stx.getId());
+            return stx;
+        }
+    }
+
+    @InitiatedBy(MoveBatchFlow.class)
+    public static class MoveBatchResponder extends FlowLogic<Unit> {
+        private final FlowSession counterSession;
+
+        public MoveBatchResponder(FlowSession counterSession) {
+            this.counterSession = counterSession;
+        }
+
+        @Override
+        @Suspendable
+        public Unit call() throws FlowException {
+            // Simply use the MoveFungibleTokensHandler as the responding flow
+            return subFlow(new MoveFungibleTokensHandler(counterSession));
+        }
+    }
+}
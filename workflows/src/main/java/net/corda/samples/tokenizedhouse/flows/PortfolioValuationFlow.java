@@ -0,0 +1,118 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.serialization.CordaSerializable;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+
+/**
+ * Values every unconsumed house and cassino holding in the vault (quantity x current valuation of the token type)
+ * in a single SQL pass, grouped by holding account and asset class.
+ *
+ * The fungible_token rows are joined to the current (unconsumed) version of their token type, so the token types
+ * must be in this node's vault. Holdings owned directly by a node identity rather than an account key are reported
+ * with a null account id. Rows are ordered by account, so consecutive pages never overlap; the page is cut by the
+ * JPA provider, which writes the row limit in the node database's own dialect.
+ */
+@StartableByRPC
+public class PortfolioValuationFlow extends FlowLogic<List<PortfolioValuationFlow.AccountValuation>> {
+
+    private static final String HOLDINGS_BY_CLASS =
+            "SELECT ft.transaction_id, ft.output_index, ft.amount, tt.valuation, '%1$s' AS asset_class " +
+            "FROM fungible_token ft " +
+            "JOIN %2$s tt ON tt.linear_id = ft.token_identifier " +
+            "JOIN vault_states tts ON tts.transaction_id = tt.transaction_id AND tts.output_index = tt.output_index " +
+            "WHERE tts.state_status = 0";
+
+    private static final String VALUATION_QUERY =
+            "SELECT acct.external_id, h.asset_class, SUM(h.amount) AS quantity, SUM(h.amount * h.valuation) AS total_value " +
+            "FROM (" + String.format(HOLDINGS_BY_CLASS, AssetClass.HOUSE.name(), AssetClass.HOUSE.getTableName()) +
+            " UNION ALL " + String.format(HOLDINGS_BY_CLASS, AssetClass.CASSINO.name(), AssetClass.CASSINO.getTableName()) +
+            ") h " +
+            "JOIN vault_states vs ON vs.transaction_id = h.transaction_id AND vs.output_index = h.output_index " +
+            "LEFT JOIN v_pkey_hash_ex_id_map acct ON acct.transaction_id = h.transaction_id AND acct.output_index = h.output_index " +
+            "WHERE vs.state_status = 0 AND vs.relevancy_status = 0 " +
+            "GROUP BY acct.external_id, h.asset_class " +
+            "ORDER BY acct.external_id, h.asset_class";
+
+    private final PageSpecification paging;
+
+    public PortfolioValuationFlow(PageSpecification paging) {
+        this.paging = paging;
+    }
+
+    public PortfolioValuationFlow() {
+        this(new PageSpecification(DEFAULT_PAGE_NUM, DEFAULT_PAGE_SIZE));
+    }
+
+    @Override
+    @Suspendable
+    public List<AccountValuation> call() throws FlowException {
+        if (paging.getPageNumber() < DEFAULT_PAGE_NUM || paging.getPageSize() < 1) {
+            throw new IllegalArgumentException("Invalid page specification " + paging);
+        }
+
+        List<?> rows = getServiceHub().withEntityManager((EntityManager em) -> em.createNativeQuery(VALUATION_QUERY)
+                .setFirstResult((paging.getPageNumber() - 1) * paging.getPageSize())
+                .setMaxResults(paging.getPageSize())
+                .getResultList());
+
+        List<AccountValuation> result = new ArrayList<>();
+        for (Object row : rows) {
+            Object[] columns = (Object[]) row;
+            result.add(new AccountValuation(
+                    columns[0] == null ? null : UUID.fromString(columns[0].toString()),
+                    AssetClass.valueOf(columns[1].toString()),
+                    ((Number) columns[2]).longValue(),
+                    ((Number) columns[3]).longValue()));
+        }
+        return result;
+    }
+
+    @CordaSerializable
+    public static class AccountValuation {
+        private final UUID accountId;
+        private final AssetClass assetClass;
+        private final long quantity;
+        private final long totalValue;
+
+        public AccountValuation(UUID accountId, AssetClass assetClass, long quantity, long totalValue) {
+            this.accountId = accountId;
+            this.assetClass = assetClass;
+            this.quantity = quantity;
+            this.totalValue = totalValue;
+        }
+
+        public UUID getAccountId() {
+            return accountId;
+        }
+
+        public AssetClass getAssetClass() {
+            return assetClass;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public long getTotalValue() {
+            return totalValue;
+        }
+
+        @Override
+        public String toString() {
+            return "AccountValuation(accountId=" + accountId + ", assetClass=" + assetClass +
+                    ", quantity=" + quantity + ", totalValue=" + totalValue + ")";
+        }
+    }
+}
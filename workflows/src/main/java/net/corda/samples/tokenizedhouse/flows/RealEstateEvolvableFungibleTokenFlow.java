@@ -4,24 +4,28 @@ import co.paralleluniverse.fibers.Suspendable;
 import kotlin.Unit;
 import com.google.common.collect.ImmutableList;
 import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
-import com.r3.corda.lib.accounts.workflows.UtilitiesKt;
 import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
 import com.r3.corda.lib.tokens.contracts.types.TokenType;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.CreateEvolvableTokens;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.IssueTokens;
-import com.r3.corda.lib.tokens.workflows.flows.rpc.MoveFungibleTokens;
 import com.r3.corda.lib.tokens.workflows.flows.rpc.MoveFungibleTokensHandler;
 import com.r3.corda.lib.tokens.workflows.utilities.FungibleTokenBuilder;
 import net.corda.core.contracts.Amount;
-import net.corda.core.contracts.StateAndRef;
 import net.corda.core.contracts.TransactionState;
 import net.corda.core.contracts.UniqueIdentifier;
 import net.corda.core.flows.*;
+import net.corda.core.identity.AnonymousParty;
 import net.corda.core.identity.CordaX500Name;
 import net.corda.core.identity.Party;
 import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.ClientRequestService;
+import net.corda.samples.tokenizedhouse.services.MoveCoalescingService;
 import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Create,Issue,Move,Redeem token flows for a house asset on ledger
  * This is all-in-one implementation style.
@@ -37,10 +41,16 @@ public class RealEstateEvolvableFungibleTokenFlow {
         // valuation property of a house can change hence we are considering house as a evolvable asset
         private final int valuation;
         private final String symbol;
+        private final List<Party> observers;
 
-        public CreateHouseTokenFlow(String symbol, int valuation) {
+        public CreateHouseTokenFlow(String symbol, int valuation, List<Party> observers) {
             this.valuation = valuation;
             this.symbol = symbol;
+            this.observers = observers;
+        }
+
+        public CreateHouseTokenFlow(String symbol, int valuation) {
+            this(symbol, valuation, Collections.emptyList());
         }
 
         @Override
@@ -57,7 +67,8 @@ public class RealEstateEvolvableFungibleTokenFlow {
             TransactionState<FungibleHouseTokenState> transactionState = new TransactionState<>(evolvableTokenType, notary);
 
             //call built in sub flow CreateEvolvableTokens. This can be called via rpc or in unit testing
-            return subFlow(new CreateEvolvableTokens(transactionState));
+            //observers record the token type too, so they can move tokens of it later
+            return subFlow(new CreateEvolvableTokens(transactionState, observers));
         }
     }
 
@@ -69,38 +80,53 @@ public class RealEstateEvolvableFungibleTokenFlow {
         private final String symbol;
         private final int quantity;
         private final String holder;
+        private final String clientRequestId;
 
-        public IssueHouseTokenFlow(String symbol, int quantity, String holder) {
+        public IssueHouseTokenFlow(String symbol, int quantity, String holder, String clientRequestId) {
             this.symbol = symbol;
             this.quantity = quantity;
             this.holder = holder;
+            this.clientRequestId = clientRequestId;
+        }
+
+        public IssueHouseTokenFlow(String symbol, int quantity, String holder) {
+            this(symbol, quantity, holder, null);
         }
 
         @Override
         @Suspendable
         public SignedTransaction call() throws FlowException {
-            //Generate accountinfo & AnonymousParty object for transaction
-            AccountInfo holderAccountInfo = UtilitiesKt.getAccountService(this).accountInfo(holder).get(0).getState().getData();
-            Party holderAccount = holderAccountInfo.getHost();
-            //get house states on ledger with uuid as input tokenId
-            StateAndRef<FungibleHouseTokenState> stateAndRef = getServiceHub().getVaultService().
-                    queryBy(FungibleHouseTokenState.class).getStates().stream()
-                    .filter(sf->sf.getState().getData().getSymbol().equals(symbol)).findAny()
-                    .orElseThrow(()-> new IllegalArgumentException("FungibleHouseTokenState symbol=\""+symbol+"\" not found from vault"));
-
-            //get the RealEstateEvolvableTokenType object
-            FungibleHouseTokenState evolvableTokenType = stateAndRef.getState().getData();
+            //A retried request gets the transaction of the flow that already completed it
+            ClientRequestService clientRequests = getServiceHub().cordaService(ClientRequestService.class);
+            if (clientRequestId != null) {
+                SignedTransaction previous = clientRequests.claim(clientRequestId, getClass().getName(),
+                        ClientRequestService.fingerprint(symbol, quantity, holder), getRunId().getUuid());
+                if (previous != null) {
+                    return previous;
+                }
+            }
+
+            //Resolve the holder and the token pointer outside this frame, so no vault query result is held
+            //in a local when subFlow suspends and checkpoints the flow
+            AccountInfo holderAccount = VaultLookups.accountByName(this, holder);
+            TokenPointer<FungibleHouseTokenState> tokenPointer = VaultLookups.pointerForSymbol(getServiceHub(), FungibleHouseTokenState.class, symbol);
+            //the account holds the tokens under a key of its own
+            AnonymousParty holderKey = AccountHoldings.accountKey(this, holderAccount);
 
             //create fungible token for the house token type
             FungibleToken fungibleToken = new FungibleTokenBuilder()
-                    .ofTokenType(evolvableTokenType.toPointer(FungibleHouseTokenState.class)) // get the token pointer
+                    .ofTokenType(tokenPointer)
                     .issuedBy(getOurIdentity())
-                    .heldBy(holderAccount)
+                    .heldBy(holderKey)
                     .withAmount(quantity)
                     .buildFungibleToken();
 
             //use built in flow for issuing tokens on ledger
-            return subFlow(new IssueTokens(ImmutableList.of(fungibleToken)));
+            SignedTransaction stx = subFlow(new IssueTokens(ImmutableList.of(fungibleToken)));
+            if (clientRequestId != null) {
+                clientRequests.complete(clientRequestId, stx.getId());
+            }
+            return stx;
         }
     }
 
@@ -112,38 +138,66 @@ public class RealEstateEvolvableFungibleTokenFlow {
     public static class MoveHouseTokenFlow extends FlowLogic<SignedTransaction> {
         private final String symbol;
         private final int quantity;
+        private final String fromAccount;
         private final String toAccount;
+        private final String clientRequestId;
 
-        public MoveHouseTokenFlow(String symbol, int quantity, String toAccount) {
+        /**
+         * @param fromAccount the account of ours to move out of, or null for any one of them holding enough by itself
+         * @param clientRequestId null unless the move may be retried, see {@link ClientRequestService}
+         */
+        public MoveHouseTokenFlow(String symbol, int quantity, String fromAccount, String toAccount, String clientRequestId) {
             this.symbol = symbol;
             this.quantity = quantity;
+            this.fromAccount = fromAccount;
             this.toAccount = toAccount;
+            this.clientRequestId = clientRequestId;
+        }
+
+        public MoveHouseTokenFlow(String symbol, int quantity, String toAccount) {
+            this(symbol, quantity, null, toAccount, null);
         }
 
 
         @Suspendable
         @Override
         public SignedTransaction call() throws FlowException {
-            AccountInfo toAccountInfo = UtilitiesKt.getAccountService(this).accountInfo(toAccount).get(0).getState().getData();
-            Party toAccountParty = toAccountInfo.getHost();
-
-            //get house states on ledger with uuid as input tokenId
-            StateAndRef<FungibleHouseTokenState> stateAndRef = getServiceHub().getVaultService().
-                    queryBy(FungibleHouseTokenState.class).getStates().stream()
-                    .filter(sf->sf.getState().getData().getSymbol().equals(symbol)).findAny()
-                    .orElseThrow(()-> new IllegalArgumentException("FungibleHouseTokenState=\""+symbol+"\" not found from vault"));
-
-            //get the RealEstateEvolvableTokenType object
-            FungibleHouseTokenState tokenstate = stateAndRef.getState().getData();
+            //A retried request gets the transaction of the flow that already completed it
+            ClientRequestService clientRequests = getServiceHub().cordaService(ClientRequestService.class);
+            if (clientRequestId != null) {
+                SignedTransaction previous = clientRequests.claim(clientRequestId, getClass().getName(),
+                        ClientRequestService.fingerprint(symbol, quantity, fromAccount, toAccount), getRunId().getUuid());
+                if (previous != null) {
+                    return previous;
+                }
+            }
+
+            AccountInfo toAccountInfo = VaultLookups.accountByName(this, toAccount);
 
             /*  specify how much amount to transfer to which holder
-             *  Note: we use a pointer of tokenstate because it of type EvolvableTokenType
+             *  Note: we use a pointer of the token state because it of type EvolvableTokenType, and only the pointer
+             *  is kept across the suspension in subFlow
              */
-            Amount<TokenType> amount = new Amount<>(quantity, tokenstate.toPointer(FungibleHouseTokenState.class));
-            //PartyAndAmount partyAndAmount = new PartyAndAmount(holder, amount);
-
-            //use built in flow to move fungible tokens to holder
-            return subFlow(new MoveFungibleTokens(amount,toAccountParty));
+            TokenPointer<FungibleHouseTokenState> tokenPointer = VaultLookups.pointerForSymbol(getServiceHub(), FungibleHouseTokenState.class, symbol);
+            Amount<TokenType> amount = new Amount<>(quantity, tokenPointer);
+
+            //move out of the named account, or else out of one of our accounts holding enough by itself
+            AccountInfo fromAccountInfo = fromAccount != null
+                    ? VaultLookups.accountByName(this, fromAccount)
+                    : VaultLookups.accountHolding(this, tokenPointer, quantity);
+            //the receiving account holds the tokens under a key of its own
+            AnonymousParty toAccountKey = AccountHoldings.accountKey(this, toAccountInfo);
+
+            //use built in flow to move fungible tokens to holder, or share one transaction with concurrent moves
+            MoveCoalescingService coalescer = getServiceHub().cordaService(MoveCoalescingService.class);
+            SignedTransaction stx = coalescer.isEnabled()
+                    ? await(new CoalescedMoveFlows.CoalescedMoveOperation(coalescer, amount, toAccountKey,
+                            fromAccountInfo.getIdentifier().getId()))
+                    : AccountHoldings.move(this, amount, toAccountKey, fromAccountInfo);
+            if (clientRequestId != null) {
+                clientRequests.complete(clientRequestId, stx.getId());
+            }
+            return stx;
         }
     }
 
@@ -0,0 +1,235 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StartableByRPC;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.core.serialization.CordaSerializable;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_NUM;
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.DEFAULT_PAGE_SIZE;
+
+/**
+ * Ranks the holders of one house or cassino token type by unconsumed quantity and reports how concentrated the supply
+ * is: the share held by the top 10 holders and the number of holders with at least threshold tokens.
+ *
+ * Holdings are grouped in the database by account, or by holding key for tokens not held by an account, so only the
+ * requested page of holders is loaded. Every unconsumed holding in this node's vault counts, including observed ones,
+ * so the report covers what this node can see of the supply. The top holders and the page are cut by the JPA
+ * provider, which writes the row limit in the node database's own dialect.
+ */
+@StartableByRPC
+public class TopHoldersReportFlow extends FlowLogic<TopHoldersReportFlow.ConcentrationReport> {
+
+    public static final int TOP_HOLDERS = 10;
+
+    private static final String HOLDER_KEY = "CASE WHEN acct.external_id IS NULL THEN ft.holding_key END";
+
+    private static final String HOLDERS =
+            "SELECT acct.external_id, " + HOLDER_KEY + " AS holding_key, SUM(ft.amount) AS quantity " +
+            "FROM fungible_token ft " +
+            "JOIN vault_states vs ON vs.transaction_id = ft.transaction_id AND vs.output_index = ft.output_index " +
+            "LEFT JOIN v_pkey_hash_ex_id_map acct ON acct.transaction_id = ft.transaction_id AND acct.output_index = ft.output_index " +
+            "WHERE vs.state_status = 0 AND ft.token_identifier = ? " +
+            "GROUP BY acct.external_id, " + HOLDER_KEY;
+
+    private static final String SUMMARY_QUERY =
+            "SELECT COUNT(*) AS holder_count, COALESCE(SUM(h.quantity), 0) AS total_quantity, " +
+            "COALESCE(SUM(CASE WHEN h.quantity >= ? THEN 1 ELSE 0 END), 0) AS above_threshold " +
+            "FROM (" + HOLDERS + ") h";
+
+    // Ties are broken on the holder, so consecutive pages never overlap.
+    private static final String RANKING_QUERY =
+            "SELECT h.external_id, h.holding_key, h.quantity " +
+            "FROM (" + HOLDERS + ") h " +
+            "ORDER BY h.quantity DESC, h.external_id, h.holding_key";
+
+    private final AssetClass assetClass;
+    private final String symbol;
+    private final long threshold;
+    private final PageSpecification paging;
+
+    public TopHoldersReportFlow(AssetClass assetClass, String symbol, long threshold, PageSpecification paging) {
+        this.assetClass = assetClass;
+        this.symbol = symbol;
+        this.threshold = threshold;
+        this.paging = paging;
+    }
+
+    public TopHoldersReportFlow(AssetClass assetClass, String symbol, long threshold) {
+        this(assetClass, symbol, threshold, new PageSpecification(DEFAULT_PAGE_NUM, DEFAULT_PAGE_SIZE));
+    }
+
+    @Override
+    @Suspendable
+    public ConcentrationReport call() throws FlowException {
+        if (paging.getPageNumber() < DEFAULT_PAGE_NUM || paging.getPageSize() < 1) {
+            throw new IllegalArgumentException("Invalid page specification " + paging);
+        }
+        String tokenIdentifier = VaultLookups.pointerForSymbol(getServiceHub(), assetClass.getTokenTypeClass(), symbol)
+                .getTokenIdentifier();
+
+        Object[] summary = getServiceHub().withEntityManager((EntityManager em) -> (Object[]) em
+                .createNativeQuery(SUMMARY_QUERY)
+                .setParameter(1, threshold)
+                .setParameter(2, tokenIdentifier)
+                .getSingleResult());
+        long holderCount = ((Number) summary[0]).longValue();
+        long totalQuantity = ((Number) summary[1]).longValue();
+        long aboveThreshold = ((Number) summary[2]).longValue();
+
+        long topQuantity = 0;
+        for (Object row : ranking(tokenIdentifier, 0, TOP_HOLDERS)) {
+            topQuantity += ((Number) ((Object[]) row)[2]).longValue();
+        }
+
+        List<HolderRank> holders = new ArrayList<>();
+        long firstRank = (long) (paging.getPageNumber() - 1) * paging.getPageSize() + 1;
+        for (Object row : ranking(tokenIdentifier, (int) (firstRank - 1), paging.getPageSize())) {
+            Object[] columns = (Object[]) row;
+            long quantity = ((Number) columns[2]).longValue();
+            holders.add(new HolderRank(firstRank + holders.size(),
+                    columns[0] == null ? null : UUID.fromString(columns[0].toString()),
+                    columns[1] == null ? null : columns[1].toString(), quantity, share(quantity, totalQuantity)));
+        }
+
+        return new ConcentrationReport(assetClass, symbol, holderCount, totalQuantity, topQuantity,
+                share(topQuantity, totalQuantity), threshold, aboveThreshold, holders);
+    }
+
+    private List<?> ranking(String tokenIdentifier, int firstResult, int maxResults) {
+        return getServiceHub().withEntityManager((EntityManager em) -> em.createNativeQuery(RANKING_QUERY)
+                .setParameter(1, tokenIdentifier)
+                .setFirstResult(firstResult)
+                .setMaxResults(maxResults)
+                .getResultList());
+    }
+
+    private static double share(long quantity, long totalQuantity) {
+        return totalQuantity == 0 ? 0.0 : (double) quantity / totalQuantity;
+    }
+
+    @CordaSerializable
+    public static class HolderRank {
+        private final long rank;
+        private final UUID accountId;
+        private final String owningKeyHash;
+        private final long quantity;
+        private final double share;
+
+        public HolderRank(long rank, UUID accountId, String owningKeyHash, long quantity, double share) {
+            this.rank = rank;
+            this.accountId = accountId;
+            this.owningKeyHash = owningKeyHash;
+            this.quantity = quantity;
+            this.share = share;
+        }
+
+        public long getRank() {
+            return rank;
+        }
+
+        // Null for holdings not held by an account.
+        public UUID getAccountId() {
+            return accountId;
+        }
+
+        // Null for holdings held by an account.
+        public String getOwningKeyHash() {
+            return owningKeyHash;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public double getShare() {
+            return share;
+        }
+
+        @Override
+        public String toString() {
+            return "HolderRank(rank=" + rank + ", accountId=" + accountId + ", owningKeyHash=" + owningKeyHash +
+                    ", quantity=" + quantity + ", share=" + share + ")";
+        }
+    }
+
+    @CordaSerializable
+    public static class ConcentrationReport {
+        private final AssetClass assetClass;
+        private final String symbol;
+        private final long holderCount;
+        private final long totalQuantity;
+        private final long topHoldersQuantity;
+        private final double topHoldersShare;
+        private final long threshold;
+        private final long holdersAboveThreshold;
+        private final List<HolderRank> holders;
+
+        public ConcentrationReport(AssetClass assetClass, String symbol, long holderCount, long totalQuantity,
+                                   long topHoldersQuantity, double topHoldersShare, long threshold,
+                                   long holdersAboveThreshold, List<HolderRank> holders) {
+            this.assetClass = assetClass;
+            this.symbol = symbol;
+            this.holderCount = holderCount;
+            this.totalQuantity = totalQuantity;
+            this.topHoldersQuantity = topHoldersQuantity;
+            this.topHoldersShare = topHoldersShare;
+            this.threshold = threshold;
+            this.holdersAboveThreshold = holdersAboveThreshold;
+            this.holders = holders;
+        }
+
+        public AssetClass getAssetClass() {
+            return assetClass;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public long getHolderCount() {
+            return holderCount;
+        }
+
+        public long getTotalQuantity() {
+            return totalQuantity;
+        }
+
+        // Held by the top TOP_HOLDERS holders.
+        public long getTopHoldersQuantity() {
+            return topHoldersQuantity;
+        }
+
+        public double getTopHoldersShare() {
+            return topHoldersShare;
+        }
+
+        public long getThreshold() {
+            return threshold;
+        }
+
+        public long getHoldersAboveThreshold() {
+            return holdersAboveThreshold;
+        }
+
+        // The requested page of holders, largest first.
+        public List<HolderRank> getHolders() {
+            return holders;
+        }
+
+        @Override
+        public String toString() {
+            return "ConcentrationReport(assetClass=" + assetClass + ", symbol=" + symbol + ", holderCount=" + holderCount +
+                    ", totalQuantity=" + totalQuantity + ", topHoldersQuantity=" + topHoldersQuantity +
+                    ", topHoldersShare=" + topHoldersShare + ", threshold=" + threshold +
+                    ", holdersAboveThreshold=" + holdersAboveThreshold + ", holders=" + holders + ")";
+        }
+    }
+}
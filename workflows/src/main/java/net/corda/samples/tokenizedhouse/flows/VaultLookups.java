@@ -0,0 +1,100 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.accounts.workflows.UtilitiesKt;
+import com.r3.corda.lib.tokens.contracts.states.EvolvableTokenType;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.workflows.utilities.QueryUtilities;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.node.services.vault.Builder;
+import net.corda.core.node.services.vault.CriteriaExpression;
+import net.corda.core.node.services.vault.QueryCriteria;
+
+import javax.persistence.EntityManager;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static net.corda.core.node.services.vault.QueryCriteriaUtils.getField;
+
+/**
+ * Vault lookups shared by the token flows.
+ *
+ * None of these methods are @Suspendable on purpose: the query results live in their own stack frame, which is gone
+ * before the calling flow reaches its next suspension point, so only the small value returned here (a TokenPointer,
+ * an account) ends up in the checkpoint, however large the vault is.
+ */
+public final class VaultLookups {
+
+    private static final String ACCOUNT_HOLDING_QUERY =
+            "SELECT acct.external_id " +
+            "FROM fungible_token ft " +
+            "JOIN vault_states vs ON vs.transaction_id = ft.transaction_id AND vs.output_index = ft.output_index " +
+            "JOIN v_pkey_hash_ex_id_map acct ON acct.transaction_id = ft.transaction_id AND acct.output_index = ft.output_index " +
+            "WHERE vs.state_status = 0 AND vs.relevancy_status = 0 AND ft.token_identifier = ? " +
+            "GROUP BY acct.external_id " +
+            "HAVING SUM(ft.amount) >= ? " +
+            "ORDER BY acct.external_id";
+
+    private VaultLookups() { }
+
+    /**
+     * Finds the unconsumed token type of the given class with the given symbol, filtering on the indexed schema
+     * column rather than loading every token type of the class.
+     */
+    public static <T extends EvolvableTokenType> TokenPointer<T> pointerForSymbol(ServiceHub serviceHub, Class<T> tokenTypeClass,
+                                                                                 String symbol) {
+        CriteriaExpression symbolIndex = Builder.equal(getField("symbol", AssetClass.forTokenType(tokenTypeClass).getSchemaEntity()), symbol);
+        List<StateAndRef<T>> states = serviceHub.getVaultService()
+                .queryBy(tokenTypeClass, new QueryCriteria.VaultCustomQueryCriteria(symbolIndex)).getStates();
+        if (states.isEmpty()) {
+            throw new IllegalArgumentException(tokenTypeClass.getSimpleName() + " symbol=\"" + symbol + "\" not found from vault");
+        }
+        return states.get(0).getState().getData().toPointer(tokenTypeClass);
+    }
+
+    public static AccountInfo accountByName(FlowLogic<?> flow, String accountName) {
+        List<StateAndRef<AccountInfo>> accounts = UtilitiesKt.getAccountService(flow).accountInfo(accountName);
+        if (accounts.isEmpty()) {
+            throw new IllegalArgumentException("Account \"" + accountName + "\" not found from vault");
+        }
+        return accounts.get(0).getState().getData();
+    }
+
+    /**
+     * The account hosted by this node with the lowest id among those holding at least quantity of the token type, in a
+     * single query over every account's balance.
+     */
+    public static AccountInfo accountHolding(FlowLogic<?> flow, TokenPointer<?> tokenPointer, long quantity) {
+        List<?> accountIds = flow.getServiceHub().withEntityManager((EntityManager em) -> em.createNativeQuery(ACCOUNT_HOLDING_QUERY)
+                .setParameter(1, tokenPointer.getTokenIdentifier())
+                .setParameter(2, quantity)
+                .setMaxResults(1)
+                .getResultList());
+        if (accountIds.isEmpty()) {
+            throw new IllegalArgumentException("No account holds " + quantity + " of token " + tokenPointer.getTokenIdentifier());
+        }
+        StateAndRef<AccountInfo> account = UtilitiesKt.getAccountService(flow).accountInfo(UUID.fromString(accountIds.get(0).toString()));
+        if (account == null || !account.getState().getData().getHost().equals(flow.getOurIdentity())) {
+            throw new IllegalArgumentException("Account " + accountIds.get(0) + " is not hosted by this node");
+        }
+        return account.getState().getData();
+    }
+
+    /**
+     * Sums the unconsumed amount of the token type held by the account's keys in the database.
+     */
+    public static long balanceForAccount(ServiceHub serviceHub, TokenPointer<?> tokenPointer, UUID accountId) {
+        QueryCriteria criteria = QueryUtilities.tokenAmountCriteria(tokenPointer)
+                .and(new QueryCriteria.VaultQueryCriteria().withExternalIds(Collections.singletonList(accountId)))
+                .and(QueryUtilities.sumTokenCriteria());
+        List<Object> sums = serviceHub.getVaultService().queryBy(FungibleToken.class, criteria).getOtherResults();
+        if (sums.isEmpty() || sums.get(0) == null) {
+            return 0L;
+        }
+        return ((Number) sums.get(0)).longValue();
+    }
+}
@@ -0,0 +1,6 @@
+package net.corda.samples.tokenizedhouse.services;
+
+/**
+ * The family of schemas for the per-account token history.
+ */
+public class AccountHistorySchema { }
@@ -0,0 +1,65 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * One row per account, token type and transaction that changed the account's holding: the net quantity that came in
+ * or went out. event_time is in epoch milliseconds; together with event_id it orders an account's history.
+ */
+public class AccountHistorySchemaV1 extends MappedSchema {
+
+    public AccountHistorySchemaV1() {
+        super(AccountHistorySchema.class, 1, ImmutableList.of(PersistentAccountEvent.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "account-history.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "account_token_event")
+    public static class PersistentAccountEvent {
+        @Id
+        @Column(name = "event_id", nullable = false) private String eventId;
+        @Column(name = "account_id", nullable = false) private String accountId;
+        @Column(name = "event_type", nullable = false) private String eventType;
+        @Column(name = "asset_class", nullable = false) private String assetClass;
+        @Column(name = "token_identifier", nullable = false) private String tokenIdentifier;
+        @Column(name = "quantity", nullable = false) private long quantity;
+        @Column(name = "tx_id", nullable = false) private String txId;
+        @Column(name = "event_time", nullable = false) private long eventTime;
+
+        public PersistentAccountEvent(String eventId, String accountId, String eventType, String assetClass,
+                                      String tokenIdentifier, long quantity, String txId, long eventTime) {
+            this.eventId = eventId;
+            this.accountId = accountId;
+            this.eventType = eventType;
+            this.assetClass = assetClass;
+            this.tokenIdentifier = tokenIdentifier;
+            this.quantity = quantity;
+            this.txId = txId;
+            this.eventTime = eventTime;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentAccountEvent() {
+            this(null, null, null, null, null, 0, null, 0);
+        }
+
+        public String getEventId() { return eventId; }
+        public String getAccountId() { return accountId; }
+        public String getEventType() { return eventType; }
+        public String getAssetClass() { return assetClass; }
+        public String getTokenIdentifier() { return tokenIdentifier; }
+        public long getQuantity() { return quantity; }
+        public String getTxId() { return txId; }
+        public long getEventTime() { return eventTime; }
+    }
+}
@@ -0,0 +1,224 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.AccountHistorySchemaV1.PersistentAccountEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills account_token_event from the vault's raw updates, inside the database transaction that records the states.
+ *
+ * For every transaction the quantities an account received and gave up of a house or cassino token type are netted,
+ * so change outputs do not show up as events. The net becomes an ISSUE, MOVE_IN, MOVE_OUT or REDEEM event, depending
+ * on the transaction's token command. Vault updates do not say which transaction consumed a state. When one of the
+ * update's own transactions did, the event is written with the states; otherwise the consumption waits for its
+ * transaction on the stream of recorded transactions and is written right after the vault commits, so a node that
+ * dies in between misses that event. Past 10000 waiting consumptions the oldest are dropped with a warning, as are the
+ * events of a transaction that is missing: the recording flow never fails over the history.
+ *
+ * Event times strictly increase, also across restarts, as they carry on from the latest one in the table. Tokens not
+ * held by an account key have no history; the issue and move flows give tokens to account keys.
+ */
+@CordaService
+public class AccountHistoryService extends SingletonSerializeAsToken {
+    private static final Logger logger = LoggerFactory.getLogger(AccountHistoryService.class);
+    private static final int TRACKED_REFS = 10_000;
+
+    public enum EventType { ISSUE, MOVE_IN, MOVE_OUT, REDEEM }
+
+    private static final class EventKey {
+        private final SecureHash txId;
+        private final UUID accountId;
+        private final FungibleToken token;
+
+        EventKey(SecureHash txId, UUID accountId, FungibleToken token) {
+            this.txId = txId;
+            this.accountId = accountId;
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof EventKey)) {
+                return false;
+            }
+            EventKey that = (EventKey) o;
+            return txId.equals(that.txId) && accountId.equals(that.accountId)
+                    && token.getIssuedTokenType().equals(that.token.getIssuedTokenType());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(txId, accountId, token.getIssuedTokenType());
+        }
+    }
+
+    private static final class Consumption {
+        private final UUID accountId;
+        private final FungibleToken token;
+
+        Consumption(UUID accountId, FungibleToken token) {
+            this.accountId = accountId;
+            this.token = token;
+        }
+    }
+
+    private final AppServiceHub serviceHub;
+    private final AtomicLong lastEventTime;
+    // Account tokens seen consumed in the vault whose consuming transaction has not been seen yet.
+    private final Map<StateRef, Consumption> pendingConsumed = new LinkedHashMap<StateRef, Consumption>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<StateRef, Consumption> eldest) {
+            if (size() <= TRACKED_REFS) {
+                return false;
+            }
+            logger.warn("Dropped the consumption of {} after tracking {} states; it is missing from the account history",
+                    eldest.getKey(), TRACKED_REFS);
+            return true;
+        }
+    };
+
+    public AccountHistoryService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        Long latest = serviceHub.withEntityManager((EntityManager em) -> em
+                .createQuery("SELECT MAX(e.eventTime) FROM " + PersistentAccountEvent.class.getName() + " e", Long.class)
+                .getSingleResult());
+        this.lastEventTime = new AtomicLong(latest == null ? 0L : latest);
+        serviceHub.getVaultService().getRawUpdates().subscribe(this::record);
+        serviceHub.getValidatedTransactions().getUpdates().subscribe(this::recordConsumptions);
+    }
+
+    private synchronized void record(Vault.Update<ContractState> update) {
+        try {
+            Map<SecureHash, SignedTransaction> transactions = new HashMap<>();
+            Map<EventKey, Long> netQuantities = new LinkedHashMap<>();
+            Set<SecureHash> producing = new LinkedHashSet<>();
+            for (StateAndRef<ContractState> produced : update.getProduced()) {
+                producing.add(produced.getRef().getTxhash());
+                UUID accountId = accountOf(produced.getState().getData());
+                if (accountId != null) {
+                    FungibleToken token = (FungibleToken) produced.getState().getData();
+                    netQuantities.merge(new EventKey(produced.getRef().getTxhash(), accountId, token),
+                            token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+                UUID accountId = accountOf(consumed.getState().getData());
+                if (accountId == null) {
+                    continue;
+                }
+                FungibleToken token = (FungibleToken) consumed.getState().getData();
+                SecureHash consumer = consumingTransaction(consumed.getRef(), producing, transactions);
+                if (consumer == null) {
+                    pendingConsumed.put(consumed.getRef(), new Consumption(accountId, token));
+                } else {
+                    netQuantities.merge(new EventKey(consumer, accountId, token), -token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            persist(netQuantities, transactions);
+        } catch (Exception e) {
+            logger.error("Recording the account history of a vault update failed", e);
+        }
+    }
+
+    /**
+     * Writes the events of consumptions whose transaction produced no state of ours, after it was committed.
+     */
+    private synchronized void recordConsumptions(SignedTransaction stx) {
+        try {
+            Map<EventKey, Long> netQuantities = new LinkedHashMap<>();
+            for (StateRef input : stx.getInputs()) {
+                Consumption consumption = pendingConsumed.remove(input);
+                if (consumption != null) {
+                    netQuantities.merge(new EventKey(stx.getId(), consumption.accountId, consumption.token),
+                            -consumption.token.getAmount().getQuantity(), Long::sum);
+                }
+            }
+            if (!netQuantities.isEmpty()) {
+                Map<SecureHash, SignedTransaction> transactions = new HashMap<>();
+                transactions.put(stx.getId(), stx);
+                persist(netQuantities, transactions);
+            }
+        } catch (Exception e) {
+            logger.error("Recording the account history of transaction {} failed", stx.getId(), e);
+        }
+    }
+
+    private void persist(Map<EventKey, Long> netQuantities, Map<SecureHash, SignedTransaction> transactions) {
+        for (Map.Entry<EventKey, Long> entry : netQuantities.entrySet()) {
+            EventKey key = entry.getKey();
+            long net = entry.getValue();
+            SignedTransaction stx = transaction(key.txId, transactions);
+            if (stx == null) {
+                logger.warn("Transaction {} of a vault state is missing; its events are not in the account history", key.txId);
+                continue;
+            }
+            EventType eventType = eventType(stx, key.token, net);
+            if (eventType == null) {
+                continue;
+            }
+            String eventId = key.txId + "/" + key.accountId + "/" + key.token.getTokenType().getTokenIdentifier();
+            PersistentAccountEvent event = new PersistentAccountEvent(eventId, key.accountId.toString(),
+                    eventType.name(), TokenEvents.assetOf(key.token).name(),
+                    key.token.getTokenType().getTokenIdentifier(), Math.abs(net), key.txId.toString(),
+                    lastEventTime.updateAndGet(last -> Math.max(System.currentTimeMillis(), last + 1)));
+            serviceHub.withEntityManager((EntityManager em) -> {
+                if (em.find(PersistentAccountEvent.class, eventId) == null) {
+                    em.persist(event);
+                }
+            });
+        }
+    }
+
+    private UUID accountOf(ContractState state) {
+        if (!(state instanceof FungibleToken) || TokenEvents.assetOf((FungibleToken) state) == null) {
+            return null;
+        }
+        return serviceHub.getIdentityService().externalIdForPublicKey(((FungibleToken) state).getHolder().getOwningKey());
+    }
+
+    private static EventType eventType(SignedTransaction stx, FungibleToken token, long net) {
+        TokenEvents.Action action = TokenEvents.actionOf(stx, token);
+        if (action == TokenEvents.Action.ISSUE && net > 0) {
+            return EventType.ISSUE;
+        }
+        if (action == TokenEvents.Action.MOVE && net != 0) {
+            return net > 0 ? EventType.MOVE_IN : EventType.MOVE_OUT;
+        }
+        if (action == TokenEvents.Action.REDEEM && net < 0) {
+            return EventType.REDEEM;
+        }
+        return null;
+    }
+
+    /**
+     * The one of the update's own transactions that consumed the state, or null if none of them did.
+     */
+    private SecureHash consumingTransaction(StateRef ref, Set<SecureHash> candidates,
+                                            Map<SecureHash, SignedTransaction> transactions) {
+        for (SecureHash candidate : candidates) {
+            SignedTransaction stx = transaction(candidate, transactions);
+            if (stx != null && stx.getInputs().contains(ref)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private SignedTransaction transaction(SecureHash txId, Map<SecureHash, SignedTransaction> transactions) {
+        return transactions.computeIfAbsent(txId, id -> serviceHub.getValidatedTransactions().getTransaction(id));
+    }
+}
@@ -0,0 +1,75 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import net.corda.core.identity.Party;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.samples.tokenizedhouse.flows.BulkCreateAndShareAccountsFlow.ShareAccountsBatchFlow;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans account sharing out to one {@link ShareAccountsBatchFlow} per party, with at most maxConcurrency of them in flight,
+ * so a bulk onboarding waits on the slowest counterparty instead of on the sum of all of them.
+ */
+@CordaService
+public class AccountShareService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+
+    public AccountShareService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+    }
+
+    /**
+     * @return for every party, the ids of the accounts it acknowledged; none if its flow could not be started
+     */
+    public CompletableFuture<Map<Party, List<UUID>>> shareWithAll(List<UUID> accountIds, List<Party> parties,
+                                                               int batchSize, int maxConcurrency) {
+        CompletableFuture<Map<Party, List<UUID>>> done = new CompletableFuture<>();
+        if (parties.isEmpty()) {
+            done.complete(new HashMap<>());
+            return done;
+        }
+        Queue<Party> pending = new ConcurrentLinkedQueue<>(parties);
+        Map<Party, List<UUID>> outcomes = new ConcurrentHashMap<>();
+        AtomicInteger remaining = new AtomicInteger(parties.size());
+        for (int i = 0; i < Math.min(maxConcurrency, parties.size()); i++) {
+            startNext(pending, outcomes, remaining, done, accountIds, batchSize);
+        }
+        return done;
+    }
+
+    private void startNext(Queue<Party> pending, Map<Party, List<UUID>> outcomes, AtomicInteger remaining,
+                           CompletableFuture<Map<Party, List<UUID>>> done, List<UUID> accountIds, int batchSize) {
+        Party party = pending.poll();
+        if (party == null) {
+            return;
+        }
+        CompletableFuture<List<UUID>> shared;
+        try {
+            shared = serviceHub.startFlow(new ShareAccountsBatchFlow(party, accountIds, batchSize))
+                    .getReturnValue().toCompletableFuture();
+        } catch (RuntimeException e) {
+            shared = new CompletableFuture<>();
+            shared.completeExceptionally(e);
+        }
+        shared.whenComplete((result, error) -> {
+            outcomes.put(party, error == null ? result : Collections.emptyList());
+            if (remaining.decrementAndGet() == 0) {
+                done.complete(new HashMap<>(outcomes));
+            } else {
+                startNext(pending, outcomes, remaining, done, accountIds, batchSize);
+            }
+        });
+    }
+}
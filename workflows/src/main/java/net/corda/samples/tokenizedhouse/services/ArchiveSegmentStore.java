@@ -0,0 +1,346 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only, compressed segment files holding archived states and their transactions.
+ *
+ * Every append writes one block to the current segment: a header (magic, compressed length, raw length, CRC32) and a
+ * deflated body holding each transaction once followed by the state entries. Next to every segment-N.seg sits a
+ * segment-N.idx text index with one "key offset" line per transaction id and linear id in a block. The indexes are
+ * read into memory when the store is opened, so a lookup goes straight to the blocks that hold the key and inflates
+ * only those. A segment is closed once it passes maxSegmentBytes and is never written again.
+ *
+ * Appends are idempotent: an entry whose state is already in the store is left out, so a batch appended again, for
+ * example after the database transaction that deleted it from the vault failed to commit, is not stored twice.
+ */
+public class ArchiveSegmentStore {
+    private static final int BLOCK_MAGIC = 0x41524348;
+    private static final int HEADER_BYTES = 16;
+    private static final String TX_KEY = "tx:";
+    private static final String LINEAR_KEY = "lin:";
+
+    public static class Entry {
+        private final String txId;
+        private final int outputIndex;
+        private final String stateClass;
+        private final String linearId;
+        private final long recordedAt;
+        private final long consumedAt;
+        private final byte[] transaction;
+
+        public Entry(String txId, int outputIndex, String stateClass, String linearId, long recordedAt, long consumedAt,
+                     byte[] transaction) {
+            this.txId = txId;
+            this.outputIndex = outputIndex;
+            this.stateClass = stateClass;
+            this.linearId = linearId;
+            this.recordedAt = recordedAt;
+            this.consumedAt = consumedAt;
+            this.transaction = transaction;
+        }
+
+        public String getTxId() { return txId; }
+        public int getOutputIndex() { return outputIndex; }
+        public String getStateClass() { return stateClass; }
+        public String getLinearId() { return linearId; }
+        public long getRecordedAt() { return recordedAt; }
+        public long getConsumedAt() { return consumedAt; }
+        public byte[] getTransaction() { return transaction; }
+    }
+
+    private static final class BlockRef {
+        private final int segment;
+        private final long offset;
+
+        BlockRef(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof BlockRef)) {
+                return false;
+            }
+            BlockRef ref = (BlockRef) other;
+            return segment == ref.segment && offset == ref.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(segment, offset);
+        }
+    }
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    // The blocks holding every indexed key, in the order they were appended; guarded by this.
+    private final Map<String, Set<BlockRef>> index = new HashMap<>();
+    // The segment appended to last, 0 before the first append; guarded by this.
+    private int lastSegment;
+
+    public ArchiveSegmentStore(Path directory, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        Files.createDirectories(directory);
+        for (int segment : segments()) {
+            loadIndex(segment);
+            lastSegment = segment;
+        }
+    }
+
+    /**
+     * Appends the entries not in the store yet as one block and forces it, then its index lines, to disk. Only once
+     * this returns may the entries be deleted from the vault.
+     *
+     * @return the number of entries appended
+     */
+    public synchronized int append(List<Entry> entries) throws IOException {
+        Set<String> archived = archivedStates(entries);
+        List<Entry> fresh = entries.stream()
+                .filter(entry -> !archived.contains(stateRef(entry)))
+                .collect(Collectors.toList());
+        if (fresh.isEmpty()) {
+            return 0;
+        }
+        byte[] raw = encode(fresh);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        byte[] body = compressed.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        int segment = currentSegment();
+        long offset;
+        try (FileChannel channel = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            offset = channel.size();
+            ByteBuffer block = ByteBuffer.allocate(HEADER_BYTES + body.length);
+            block.putInt(BLOCK_MAGIC).putInt(body.length).putInt(raw.length).putInt((int) crc.getValue()).put(body);
+            block.flip();
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+            channel.force(true);
+        }
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (Entry entry : fresh) {
+            keys.add(TX_KEY + entry.getTxId());
+            if (entry.getLinearId() != null) {
+                keys.add(LINEAR_KEY + entry.getLinearId());
+            }
+        }
+        List<String> lines = keys.stream().map(key -> key + " " + offset).collect(Collectors.toList());
+        try (FileChannel channel = FileChannel.open(indexFile(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        lastSegment = segment;
+        for (String key : keys) {
+            index.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(new BlockRef(segment, offset));
+        }
+        return fresh.size();
+    }
+
+    public List<Entry> findByTransaction(String txId) throws IOException {
+        return find(TX_KEY + txId, entry -> entry.getTxId().equals(txId));
+    }
+
+    public List<Entry> findByLinearId(String linearId) throws IOException {
+        return find(LINEAR_KEY + linearId, entry -> linearId.equals(entry.getLinearId()));
+    }
+
+    private List<Entry> find(String key, java.util.function.Predicate<Entry> matches) throws IOException {
+        List<Entry> found = new ArrayList<>();
+        for (BlockRef block : blocksFor(key)) {
+            for (Entry entry : readBlock(block.segment, block.offset)) {
+                if (matches.test(entry)) {
+                    found.add(entry);
+                }
+            }
+        }
+        return found;
+    }
+
+    private synchronized List<BlockRef> blocksFor(String key) {
+        return new ArrayList<>(index.getOrDefault(key, Collections.emptySet()));
+    }
+
+    /**
+     * The states of the entries' transactions that are in the store already; only the blocks holding those
+     * transactions are read.
+     */
+    private Set<String> archivedStates(List<Entry> entries) throws IOException {
+        Set<BlockRef> blocks = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            blocks.addAll(index.getOrDefault(TX_KEY + entry.getTxId(), Collections.emptySet()));
+        }
+        Set<String> archived = new HashSet<>();
+        for (BlockRef block : blocks) {
+            for (Entry entry : readBlock(block.segment, block.offset)) {
+                archived.add(stateRef(entry));
+            }
+        }
+        return archived;
+    }
+
+    private static String stateRef(Entry entry) {
+        return entry.getTxId() + "(" + entry.getOutputIndex() + ")";
+    }
+
+    private void loadIndex(int segment) throws IOException {
+        Path indexPath = indexFile(segment);
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+        try (Stream<String> lines = Files.lines(indexPath, StandardCharsets.UTF_8)) {
+            lines.forEach(line -> {
+                int separator = line.lastIndexOf(' ');
+                // A line cut short by a crash indexes a block that was never completed.
+                if (separator <= 0) {
+                    return;
+                }
+                index.computeIfAbsent(line.substring(0, separator), key -> new LinkedHashSet<>())
+                        .add(new BlockRef(segment, Long.parseLong(line.substring(separator + 1))));
+            });
+        }
+    }
+
+    private List<Entry> readBlock(int segment, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, offset);
+            header.flip();
+            if (header.getInt() != BLOCK_MAGIC) {
+                throw new IOException("No archive block at " + segmentFile(segment) + ":" + offset);
+            }
+            int compressedLength = header.getInt();
+            int rawLength = header.getInt();
+            int checksum = header.getInt();
+            ByteBuffer body = ByteBuffer.allocate(compressedLength);
+            readFully(channel, body, offset + HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt archive block at " + segmentFile(segment) + ":" + offset);
+            }
+            Inflater inflater = new Inflater();
+            inflater.setInput(body.array());
+            byte[] raw = new byte[rawLength];
+            try {
+                inflater.inflate(raw);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt archive block at " + segmentFile(segment) + ":" + offset, e);
+            } finally {
+                inflater.end();
+            }
+            return decode(raw);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated archive block");
+            }
+        }
+    }
+
+    private static byte[] encode(List<Entry> entries) throws IOException {
+        Map<String, byte[]> transactions = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            transactions.putIfAbsent(entry.getTxId(), entry.getTransaction());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(transactions.size());
+            for (Map.Entry<String, byte[]> tx : transactions.entrySet()) {
+                out.writeUTF(tx.getKey());
+                out.writeInt(tx.getValue().length);
+                out.write(tx.getValue());
+            }
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.getTxId());
+                out.writeInt(entry.getOutputIndex());
+                out.writeUTF(entry.getStateClass());
+                out.writeUTF(entry.getLinearId() == null ? "" : entry.getLinearId());
+                out.writeLong(entry.getRecordedAt());
+                out.writeLong(entry.getConsumedAt());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Entry> decode(byte[] raw) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw))) {
+            Map<String, byte[]> transactions = new HashMap<>();
+            int txCount = in.readInt();
+            for (int i = 0; i < txCount; i++) {
+                String txId = in.readUTF();
+                byte[] tx = new byte[in.readInt()];
+                in.readFully(tx);
+                transactions.put(txId, tx);
+            }
+            int entryCount = in.readInt();
+            List<Entry> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                String txId = in.readUTF();
+                int outputIndex = in.readInt();
+                String stateClass = in.readUTF();
+                String linearId = in.readUTF();
+                entries.add(new Entry(txId, outputIndex, stateClass, linearId.isEmpty() ? null : linearId,
+                        in.readLong(), in.readLong(), transactions.get(txId)));
+            }
+            return entries;
+        }
+    }
+
+    private int currentSegment() throws IOException {
+        if (lastSegment == 0) {
+            return 1;
+        }
+        return Files.size(segmentFile(lastSegment)) >= maxSegmentBytes ? lastSegment + 1 : lastSegment;
+    }
+
+    private List<Integer> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("segment-") && name.endsWith(".seg"))
+                    .map(name -> Integer.parseInt(name.substring("segment-".length(), name.length() - ".seg".length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentFile(int segment) {
+        return directory.resolve(String.format("segment-%08d.seg", segment));
+    }
+
+    private Path indexFile(int segment) {
+        return directory.resolve(String.format("segment-%08d.idx", segment));
+    }
+}
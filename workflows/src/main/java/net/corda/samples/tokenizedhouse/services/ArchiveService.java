@@ -0,0 +1,200 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.ServiceLifecycleEvent;
+import net.corda.core.serialization.SerializationFactory;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.utilities.ByteSequence;
+import net.corda.samples.tokenizedhouse.flows.ArchiveFlows.ArchiveConsumedStatesFlow;
+import net.corda.samples.tokenizedhouse.states.FungibleCassinoTokenState;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves consumed token states out of the vault tables into an {@link ArchiveSegmentStore} on local disk.
+ *
+ * A batch is the oldest consumed FungibleToken, FungibleHouseTokenState and FungibleCassinoTokenState rows whose
+ * consumption is older than the retention window. Each batch runs in a database transaction of its own, one batch at
+ * a time: the rows are deleted from the vault tables, then written with a copy of their transactions to the segment
+ * store, then the deletes are committed. A failed write rolls the deletes back and a failed delete writes nothing; if
+ * the commit fails, the store leaves out the states it already holds when the batch is archived again. node_transactions
+ * is left untouched: consumed transactions still back the chains of live states sent to new counterparties, so their
+ * cost is bounded with BackchainSnippingFlow instead.
+ *
+ * Corda has no API to remove states from the vault, so the deletes name the vault tables themselves. They were
+ * checked against Corda 4.9 (platform version 10) and Tokens SDK 1.2, and must be checked again before either is
+ * upgraded.
+ *
+ * Settings are read from the CorDapp config: archiveRetentionDays (90), archiveDirectory ("archive", resolved against
+ * the node's base directory unless absolute), archiveBatchSize (1000), archiveSegmentMegabytes (256) and
+ * archiveIntervalMinutes (0, i.e. only run through ArchiveConsumedStatesFlow).
+ */
+@CordaService
+public class ArchiveService extends SingletonSerializeAsToken {
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveService.class);
+
+    private static final List<String> ARCHIVED_CLASSES = Collections.unmodifiableList(Arrays.asList(
+            FungibleToken.class.getName(), FungibleHouseTokenState.class.getName(), FungibleCassinoTokenState.class.getName()));
+
+    private static final String SELECT_BATCH =
+            "SELECT vs.transaction_id, vs.output_index, vs.contract_state_class_name, vs.recorded_timestamp, " +
+            "vs.consumed_timestamp, COALESCE(ft.token_identifier, ht.linear_id, ct.linear_id) AS linear_id " +
+            "FROM vault_states vs " +
+            "LEFT JOIN fungible_token ft ON ft.transaction_id = vs.transaction_id AND ft.output_index = vs.output_index " +
+            "LEFT JOIN house_token_type ht ON ht.transaction_id = vs.transaction_id AND ht.output_index = vs.output_index " +
+            "LEFT JOIN cassino_token_type ct ON ct.transaction_id = vs.transaction_id AND ct.output_index = vs.output_index " +
+            "WHERE vs.state_status = 1 AND vs.consumed_timestamp < ? AND vs.contract_state_class_name IN (?, ?, ?) " +
+            "ORDER BY vs.consumed_timestamp";
+
+    // Child tables first, vault_states last; vault_linear_states_parts references vault_linear_states.
+    private static final List<String> DELETE_TABLES = Collections.unmodifiableList(Arrays.asList(
+            "fungible_token", "house_token_type", "cassino_token_type", "state_party", "vault_linear_states_parts",
+            "vault_linear_states", "vault_states"));
+
+    private final AppServiceHub serviceHub;
+    private final Duration retention;
+    private final int batchSize;
+    private final long intervalMinutes;
+    private final ArchiveSegmentStore store;
+
+    public ArchiveService(AppServiceHub serviceHub) throws IOException {
+        this.serviceHub = serviceHub;
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.retention = Duration.ofDays(config.exists("archiveRetentionDays") ? config.getLong("archiveRetentionDays") : 90);
+        this.batchSize = config.exists("archiveBatchSize") ? config.getInt("archiveBatchSize") : 1000;
+        this.intervalMinutes = config.exists("archiveIntervalMinutes") ? config.getLong("archiveIntervalMinutes") : 0;
+        Path directory = NodeDirectories.resolve(serviceHub,
+                config.exists("archiveDirectory") ? config.getString("archiveDirectory") : "archive");
+        long segmentMegabytes = config.exists("archiveSegmentMegabytes") ? config.getLong("archiveSegmentMegabytes") : 256;
+        this.store = new ArchiveSegmentStore(directory, segmentMegabytes * 1024 * 1024);
+
+        if (intervalMinutes > 0) {
+            serviceHub.register(AppServiceHub.SERVICE_PRIORITY_NORMAL, event -> {
+                if (event == ServiceLifecycleEvent.STATE_MACHINE_STARTED) {
+                    schedule();
+                }
+            });
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Archives one batch and commits it before returning. Must not be called on a flow's own thread, where it would
+     * join the flow's database transaction; ArchiveConsumedStatesFlow calls it from an external operation.
+     *
+     * @return the number of states archived, less than the batch size once nothing is left to archive
+     */
+    public synchronized int archiveBatch() throws IOException {
+        if (FlowLogic.getCurrentTopLevel() != null) {
+            throw new IllegalStateException("Archiving must run outside the flow's database transaction");
+        }
+        try {
+            return serviceHub.withEntityManager((EntityManager em) -> {
+                List<?> rows = em.createNativeQuery(SELECT_BATCH)
+                        .setParameter(1, Timestamp.from(Instant.now().minus(retention)))
+                        .setParameter(2, ARCHIVED_CLASSES.get(0))
+                        .setParameter(3, ARCHIVED_CLASSES.get(1))
+                        .setParameter(4, ARCHIVED_CLASSES.get(2))
+                        .setMaxResults(batchSize)
+                        .getResultList();
+                List<ArchiveSegmentStore.Entry> entries = new ArrayList<>();
+                Map<String, byte[]> transactions = new HashMap<>();
+                for (Object row : rows) {
+                    Object[] columns = (Object[]) row;
+                    String txId = columns[0].toString();
+                    entries.add(new ArchiveSegmentStore.Entry(txId, ((Number) columns[1]).intValue(),
+                            columns[2].toString(), columns[5] == null ? null : columns[5].toString(),
+                            ((Date) columns[3]).getTime(), ((Date) columns[4]).getTime(),
+                            transactions.computeIfAbsent(txId, this::serializedTransaction)));
+                }
+
+                // Deleting first lets a failed delete roll back before anything is appended.
+                for (String table : DELETE_TABLES) {
+                    for (ArchiveSegmentStore.Entry entry : entries) {
+                        em.createNativeQuery("DELETE FROM " + table + " WHERE transaction_id = ? AND output_index = ?")
+                                .setParameter(1, entry.getTxId())
+                                .setParameter(2, entry.getOutputIndex())
+                                .executeUpdate();
+                    }
+                }
+                try {
+                    store.append(entries);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return entries.size();
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public List<ArchiveSegmentStore.Entry> findByTransaction(String txId) throws IOException {
+        return store.findByTransaction(txId);
+    }
+
+    public List<ArchiveSegmentStore.Entry> findByLinearId(String linearId) throws IOException {
+        return store.findByLinearId(linearId);
+    }
+
+    public static SignedTransaction deserializeTransaction(byte[] transaction) {
+        SerializationFactory factory = SerializationFactory.getDefaultFactory();
+        return factory.deserialize(ByteSequence.of(transaction), SignedTransaction.class, factory.getDefaultContext());
+    }
+
+    private byte[] serializedTransaction(String txId) {
+        SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(SecureHash.parse(txId));
+        if (stx == null) {
+            throw new IllegalStateException("Transaction " + txId + " of a vault state is missing");
+        }
+        SerializationFactory factory = SerializationFactory.getDefaultFactory();
+        return factory.serialize(stx, factory.getDefaultContext()).getBytes();
+    }
+
+    /**
+     * Every archiveIntervalMinutes, runs one ArchiveConsumedStatesFlow per batch until the backlog is cleared. Each
+     * flow commits its own batch, so no database transaction outgrows a batch.
+     */
+    private void schedule() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "token-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                long total = 0;
+                int archived;
+                do {
+                    archived = serviceHub.startFlow(new ArchiveConsumedStatesFlow()).getReturnValue().get();
+                    total += archived;
+                } while (archived >= batchSize);
+                logger.info("Archived {} consumed token states", total);
+            } catch (Exception e) {
+                logger.warn("Scheduled token archival failed", e);
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+}
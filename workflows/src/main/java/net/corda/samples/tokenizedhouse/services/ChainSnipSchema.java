@@ -0,0 +1,6 @@
+package net.corda.samples.tokenizedhouse.services;
+
+/**
+ * The family of schemas for the node-local bookkeeping of backchain snipping.
+ */
+public class ChainSnipSchema { }
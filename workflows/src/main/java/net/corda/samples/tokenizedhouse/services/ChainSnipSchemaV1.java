@@ -0,0 +1,117 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Records, on the issuer, every snip a holder asked for: the holdings it approved before the holder redeemed them, the
+ * redemption that consumed them and the re-issuance, so only approved holdings are re-issued and each only once. On
+ * the holder it records the redemptions whose re-issuance has not arrived yet, so they can be asked for again.
+ */
+public class ChainSnipSchemaV1 extends MappedSchema {
+
+    public ChainSnipSchemaV1() {
+        super(ChainSnipSchema.class, 1, ImmutableList.of(PersistentSnipRequest.class, PersistentSnipRequestRef.class,
+                PersistentPendingReissue.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "chain-snip.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "snip_request")
+    public static class PersistentSnipRequest {
+        @Id
+        @Column(name = "request_id", nullable = false) private String requestId;
+        @Column(name = "holder", nullable = false) private String holder;
+        @Column(name = "token_identifier", nullable = false) private String tokenIdentifier;
+        @Column(name = "quantity", nullable = false) private long quantity;
+        @Column(name = "redeem_tx_id") private String redeemTxId;
+        @Column(name = "reissue_tx_id") private String reissueTxId;
+        @Column(name = "flow_id") private String flowId;
+        @Column(name = "recorded_at", nullable = false) private Instant recordedAt;
+
+        public PersistentSnipRequest(String requestId, String holder, String tokenIdentifier, long quantity,
+                                     String flowId, Instant recordedAt) {
+            this.requestId = requestId;
+            this.holder = holder;
+            this.tokenIdentifier = tokenIdentifier;
+            this.quantity = quantity;
+            this.flowId = flowId;
+            this.recordedAt = recordedAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentSnipRequest() {
+            this(null, null, null, 0, null, null);
+        }
+
+        public String getRequestId() { return requestId; }
+        public String getHolder() { return holder; }
+        public String getTokenIdentifier() { return tokenIdentifier; }
+        public long getQuantity() { return quantity; }
+        public String getRedeemTxId() { return redeemTxId; }
+        public String getReissueTxId() { return reissueTxId; }
+        public String getFlowId() { return flowId; }
+        public Instant getRecordedAt() { return recordedAt; }
+
+        public void setRedeemTxId(String redeemTxId) { this.redeemTxId = redeemTxId; }
+        public void setReissueTxId(String reissueTxId) { this.reissueTxId = reissueTxId; }
+    }
+
+    /**
+     * A holding approved for a snip; the key makes sure no holding is ever approved twice.
+     */
+    @Entity
+    @Table(name = "snip_request_ref")
+    public static class PersistentSnipRequestRef {
+        @Id
+        @Column(name = "state_ref", nullable = false) private String stateRef;
+        @Column(name = "request_id", nullable = false) private String requestId;
+
+        public PersistentSnipRequestRef(String stateRef, String requestId) {
+            this.stateRef = stateRef;
+            this.requestId = requestId;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentSnipRequestRef() {
+            this(null, null);
+        }
+
+        public String getStateRef() { return stateRef; }
+        public String getRequestId() { return requestId; }
+    }
+
+    @Entity
+    @Table(name = "pending_reissue")
+    public static class PersistentPendingReissue {
+        @Id
+        @Column(name = "redeem_tx_id", nullable = false) private String redeemTxId;
+        @Column(name = "issuer", nullable = false) private String issuer;
+        @Column(name = "recorded_at", nullable = false) private Instant recordedAt;
+
+        public PersistentPendingReissue(String redeemTxId, String issuer, Instant recordedAt) {
+            this.redeemTxId = redeemTxId;
+            this.issuer = issuer;
+            this.recordedAt = recordedAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentPendingReissue() {
+            this(null, null, null);
+        }
+
+        public String getRedeemTxId() { return redeemTxId; }
+        public String getIssuer() { return issuer; }
+        public Instant getRecordedAt() { return recordedAt; }
+    }
+}
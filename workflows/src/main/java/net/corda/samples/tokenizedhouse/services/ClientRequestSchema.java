@@ -0,0 +1,6 @@
+package net.corda.samples.tokenizedhouse.services;
+
+/**
+ * The family of schemas for the client request ids seen by the issue and move flows.
+ */
+public class ClientRequestSchema { }
@@ -0,0 +1,63 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Records which flow handled a client request id, with which parameters, and, once it finished, the transaction it
+ * produced.
+ */
+public class ClientRequestSchemaV1 extends MappedSchema {
+
+    public ClientRequestSchemaV1() {
+        super(ClientRequestSchema.class, 1, ImmutableList.of(PersistentClientRequest.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "client-request.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "client_request")
+    public static class PersistentClientRequest {
+        @Id
+        @Column(name = "request_id", nullable = false) private String requestId;
+        @Column(name = "flow_name", nullable = false) private String flowName;
+        @Column(name = "fingerprint", nullable = false) private String fingerprint;
+        @Column(name = "flow_id", nullable = false) private String flowId;
+        @Column(name = "tx_id") private String txId;
+        @Column(name = "recorded_at", nullable = false) private Instant recordedAt;
+
+        public PersistentClientRequest(String requestId, String flowName, String fingerprint, String flowId, String txId,
+                                       Instant recordedAt) {
+            this.requestId = requestId;
+            this.flowName = flowName;
+            this.fingerprint = fingerprint;
+            this.flowId = flowId;
+            this.txId = txId;
+            this.recordedAt = recordedAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentClientRequest() {
+            this(null, null, null, null, null, null);
+        }
+
+        public String getRequestId() { return requestId; }
+        public String getFlowName() { return flowName; }
+        public String getFingerprint() { return fingerprint; }
+        public String getFlowId() { return flowId; }
+        public String getTxId() { return txId; }
+        public Instant getRecordedAt() { return recordedAt; }
+
+        public void setFlowId(String flowId) { this.flowId = flowId; }
+        public void setTxId(String txId) { this.txId = txId; }
+    }
+}
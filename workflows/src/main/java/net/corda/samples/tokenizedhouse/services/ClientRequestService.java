@@ -0,0 +1,114 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.ClientRequestSchemaV1.PersistentClientRequest;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * De-duplicates issue and move requests by their client request id, so a client may retry a flow that timed out
+ * without risking a second transaction.
+ *
+ * A flow claims the id before building its transaction and records the transaction id once it has finished; both are
+ * rows in client_request, written in the flow's own database transaction. The row keeps a fingerprint of the request's
+ * parameters, and a request reusing the id with other parameters is rejected rather than answered with the earlier
+ * transaction. Completed requests are also kept in an
+ * in-memory cache of clientRequestCacheSize (CorDapp config, default 10000) entries, so a hot retry answers without
+ * touching the table. A retry that finds the id claimed by a flow that is still running fails and can be retried
+ * later; if the claiming flow ended without a transaction, the retry takes the request over.
+ */
+@CordaService
+public class ClientRequestService extends SingletonSerializeAsToken {
+
+    private final AppServiceHub serviceHub;
+    private final Map<String, PersistentClientRequest> completed;
+
+    public ClientRequestService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        int cacheSize = config.exists("clientRequestCacheSize") ? config.getInt("clientRequestCacheSize") : 10_000;
+        this.completed = Collections.synchronizedMap(new LinkedHashMap<String, PersistentClientRequest>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PersistentClientRequest> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * A digest of a request's parameters, so a reused request id can be told from a retry.
+     */
+    public static String fingerprint(Object... parameters) {
+        StringBuilder canonical = new StringBuilder();
+        for (Object parameter : parameters) {
+            // Length-prefixed, so no two parameter lists run together into the same string
+            String value = parameter == null ? "" : parameter.toString();
+            canonical.append(parameter == null ? -1 : value.length()).append(':').append(value);
+        }
+        return SecureHash.sha256(canonical.toString()).toString();
+    }
+
+    /**
+     * Claims the request id for the calling flow; must be called from that flow.
+     *
+     * @param fingerprint the {@link #fingerprint} of the request's parameters
+     * @return the transaction of an earlier flow that completed the same request, or null if the caller should go ahead
+     */
+    public SignedTransaction claim(String requestId, String flowName, String fingerprint, UUID flowId) throws FlowException {
+        PersistentClientRequest request = completed.get(requestId);
+        if (request == null) {
+            request = serviceHub.withEntityManager((EntityManager em) -> em.find(PersistentClientRequest.class, requestId));
+        }
+        if (request == null) {
+            serviceHub.withEntityManager((EntityManager em) -> {
+                em.persist(new PersistentClientRequest(requestId, flowName, fingerprint, flowId.toString(), null, Instant.now()));
+            });
+            return null;
+        }
+        if (!request.getFlowName().equals(flowName)) {
+            throw new IllegalArgumentException("Client request id \"" + requestId + "\" was already used for " + request.getFlowName());
+        }
+        if (!request.getFingerprint().equals(fingerprint)) {
+            throw new IllegalArgumentException("Client request id \"" + requestId + "\" was already used with other parameters");
+        }
+        if (request.getTxId() != null) {
+            completed.put(requestId, request);
+            SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(SecureHash.parse(request.getTxId()));
+            if (stx == null) {
+                throw new IllegalStateException("Transaction " + request.getTxId() + " of client request \"" + requestId + "\" is missing");
+            }
+            return stx;
+        }
+        if (!request.getFlowId().equals(flowId.toString())) {
+            if (NodeFlows.isLive(serviceHub, request.getFlowId())) {
+                throw new FlowException("Client request \"" + requestId + "\" is still being processed by flow " + request.getFlowId());
+            }
+            serviceHub.withEntityManager((EntityManager em) -> {
+                em.find(PersistentClientRequest.class, requestId).setFlowId(flowId.toString());
+            });
+        }
+        return null;
+    }
+
+    /**
+     * Records the transaction that completed a claimed request; must be called from the claiming flow.
+     */
+    public void complete(String requestId, SecureHash txId) {
+        serviceHub.withEntityManager((EntityManager em) -> {
+            PersistentClientRequest request = em.find(PersistentClientRequest.class, requestId);
+            request.setTxId(txId.toString());
+            completed.put(requestId, request);
+        });
+    }
+}
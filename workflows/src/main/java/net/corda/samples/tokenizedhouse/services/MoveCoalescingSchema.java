@@ -0,0 +1,6 @@
+package net.corda.samples.tokenizedhouse.services;
+
+/**
+ * The family of schemas for the moves coalesced by {@link MoveCoalescingService}.
+ */
+public class MoveCoalescingSchema { }
@@ -0,0 +1,60 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.schemas.MappedSchema;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/**
+ * Records which batch a coalesced move was given to, the flow that claimed the batch and, once it finished, the
+ * transaction it produced.
+ */
+public class MoveCoalescingSchemaV1 extends MappedSchema {
+
+    public MoveCoalescingSchemaV1() {
+        super(MoveCoalescingSchema.class, 1, ImmutableList.of(PersistentCoalescedMove.class));
+    }
+
+    @Override
+    public String getMigrationResource() {
+        return "move-coalescing.changelog-master";
+    }
+
+    @Entity
+    @Table(name = "coalesced_move")
+    public static class PersistentCoalescedMove {
+        @Id
+        @Column(name = "deduplication_id", nullable = false) private String deduplicationId;
+        @Column(name = "batch_id", nullable = false) private String batchId;
+        @Column(name = "flow_id") private String flowId;
+        @Column(name = "tx_id") private String txId;
+        @Column(name = "recorded_at", nullable = false) private Instant recordedAt;
+
+        public PersistentCoalescedMove(String deduplicationId, String batchId, String flowId, String txId, Instant recordedAt) {
+            this.deduplicationId = deduplicationId;
+            this.batchId = batchId;
+            this.flowId = flowId;
+            this.txId = txId;
+            this.recordedAt = recordedAt;
+        }
+
+        // Default constructor required by hibernate.
+        public PersistentCoalescedMove() {
+            this(null, null, null, null, null);
+        }
+
+        public String getDeduplicationId() { return deduplicationId; }
+        public String getBatchId() { return batchId; }
+        public String getFlowId() { return flowId; }
+        public String getTxId() { return txId; }
+        public Instant getRecordedAt() { return recordedAt; }
+
+        public void setBatchId(String batchId) { this.batchId = batchId; }
+        public void setFlowId(String flowId) { this.flowId = flowId; }
+        public void setTxId(String txId) { this.txId = txId; }
+    }
+}
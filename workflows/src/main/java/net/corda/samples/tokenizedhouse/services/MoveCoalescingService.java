@@ -0,0 +1,344 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.types.PartyAndAmount;
+import net.corda.core.contracts.Amount;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.identity.AbstractParty;
+import net.corda.core.messaging.FlowHandle;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.flows.CoalescedMoveFlows.MoveBatchFlow;
+import net.corda.samples.tokenizedhouse.services.MoveCoalescingSchemaV1.PersistentCoalescedMove;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces concurrent moves of the same token type out of the same account into one {@link MoveBatchFlow}, so they share a
+ * token selection, a transaction and a notarisation.
+ *
+ * The first move of a token type out of an account opens a window; moves of that type out of that account join it
+ * until moveCoalesceWindowMillis have passed or moveCoalesceMaxSize moves have joined, then the whole window is moved
+ * at once and every move gets the same transaction. Both settings come from the CorDapp config; a window of 0 (the
+ * default) turns coalescing off. Windows are timed on one thread, while the database work of resuming moves and
+ * starting batches runs on moveCoalesceThreads (default 4) others, so windows of different token types or accounts
+ * do not wait for each other.
+ *
+ * Moves are keyed by the deduplication id of the waiting flow's await, and each one is written to coalesced_move with
+ * the id of its batch before the batch flow starts. The batch flow claims its moves there and records its
+ * transaction, so a flow that resumes after a node restart waits for the batch that already carries its move, or
+ * takes the move over if no batch flow ever claimed it, instead of moving again. If a batch fails, for example
+ * because the moves together exceed the balance, its moves are retried one by one so each caller gets its own
+ * outcome, but only when the batch flow recorded no transaction: a batch that failed after notarisation has moved the
+ * tokens all the same.
+ */
+@CordaService
+public class MoveCoalescingService extends SingletonSerializeAsToken {
+
+    // How often a resumed move checks on a batch flow that is still running.
+    private static final long RECOVERY_POLL_MILLIS = 1000;
+    private static final String CLAIM_QUERY =
+            "UPDATE coalesced_move SET flow_id = ? " +
+            "WHERE deduplication_id = ? AND batch_id = ? AND (flow_id IS NULL OR flow_id = ?)";
+    private static final String TAKE_OVER_QUERY =
+            "UPDATE coalesced_move SET batch_id = ? WHERE deduplication_id = ? AND batch_id = ? AND flow_id IS NULL";
+
+    private static class PendingMove {
+        private final String deduplicationId;
+        private final PartyAndAmount<TokenType> move;
+        private final UUID fromAccountId;
+        private final CompletableFuture<SignedTransaction> result = new CompletableFuture<>();
+
+        PendingMove(String deduplicationId, PartyAndAmount<TokenType> move, UUID fromAccountId) {
+            this.deduplicationId = deduplicationId;
+            this.move = move;
+            this.fromAccountId = fromAccountId;
+        }
+    }
+
+    private static final class WindowKey {
+        private final TokenType tokenType;
+        private final UUID fromAccountId;
+
+        WindowKey(TokenType tokenType, UUID fromAccountId) {
+            this.tokenType = tokenType;
+            this.fromAccountId = fromAccountId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof WindowKey)) {
+                return false;
+            }
+            WindowKey key = (WindowKey) other;
+            return tokenType.equals(key.tokenType) && fromAccountId.equals(key.fromAccountId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tokenType, fromAccountId);
+        }
+    }
+
+    private final AppServiceHub serviceHub;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    // Only runs the timers of windows and recovery polls; everything they trigger runs on the workers.
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    // The open window of every token type and source account, guarded by this.
+    private final Map<WindowKey, List<PendingMove>> windows = new HashMap<>();
+    // Every move not finished yet by its deduplication id, guarded by this.
+    private final Map<String, PendingMove> pendingMoves = new HashMap<>();
+
+    public MoveCoalescingService(AppServiceHub serviceHub) {
+        this.serviceHub = serviceHub;
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        this.windowMillis = config.exists("moveCoalesceWindowMillis") ? config.getLong("moveCoalesceWindowMillis") : 0;
+        this.maxBatchSize = config.exists("moveCoalesceMaxSize") ? config.getInt("moveCoalesceMaxSize") : 50;
+        int threads = config.exists("moveCoalesceThreads") ? config.getInt("moveCoalesceThreads") : 4;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("move-coalescer-timer"));
+        // Batches are started from these threads only, never from the thread of a waiting flow.
+        this.workers = Executors.newFixedThreadPool(threads, daemonThreads("move-coalescer"));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    /**
+     * @param deduplicationId the same for every call made for one move, including after a node restart
+     * @param fromAccountId the account of ours the amount is moved out of
+     * @return the transaction that moved the amount, shared with the other moves of its window
+     */
+    public CompletableFuture<SignedTransaction> submit(String deduplicationId, Amount<TokenType> amount,
+                                                       AbstractParty recipient, UUID fromAccountId) {
+        PendingMove pending;
+        synchronized (this) {
+            PendingMove earlier = pendingMoves.get(deduplicationId);
+            if (earlier != null) {
+                return earlier.result;
+            }
+            pending = new PendingMove(deduplicationId, new PartyAndAmount<>(recipient, amount), fromAccountId);
+            pendingMoves.put(deduplicationId, pending);
+        }
+        workers.execute(() -> resume(pending));
+        return pending.result;
+    }
+
+    /**
+     * Claims the moves of a batch for the calling batch flow; must be called from that flow before it moves anything.
+     *
+     * @return the deduplication ids of the moves still given to the batch
+     */
+    public List<String> claimBatch(List<String> deduplicationIds, UUID batchId, UUID flowId) {
+        return serviceHub.withEntityManager((EntityManager em) -> deduplicationIds.stream()
+                .filter(deduplicationId -> em.createNativeQuery(CLAIM_QUERY)
+                        .setParameter(1, flowId.toString())
+                        .setParameter(2, deduplicationId)
+                        .setParameter(3, batchId.toString())
+                        .setParameter(4, flowId.toString())
+                        .executeUpdate() == 1)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Records the transaction of a batch; must be called from the batch flow.
+     */
+    public void completeBatch(List<String> deduplicationIds, SecureHash txId) {
+        serviceHub.withEntityManager((EntityManager em) -> {
+            for (String deduplicationId : deduplicationIds) {
+                em.find(PersistentCoalescedMove.class, deduplicationId).setTxId(txId.toString());
+            }
+        });
+    }
+
+    /**
+     * Picks a submitted move up where an earlier call for the same deduplication id, if any, left it.
+     */
+    private void resume(PendingMove pending) {
+        try {
+            PersistentCoalescedMove earlier = serviceHub.withEntityManager((EntityManager em) ->
+                    em.find(PersistentCoalescedMove.class, pending.deduplicationId));
+            if (earlier == null) {
+                join(pending);
+            } else if (earlier.getTxId() != null) {
+                finish(pending, transaction(SecureHash.parse(earlier.getTxId())), null);
+            } else if (earlier.getFlowId() != null) {
+                awaitBatch(earlier.getFlowId(), pending);
+            } else if (takeOver(pending.deduplicationId, earlier.getBatchId())) {
+                join(pending);
+            } else {
+                // The batch flow claimed the move in the meantime.
+                resume(pending);
+            }
+        } catch (RuntimeException e) {
+            finish(pending, null, e);
+        }
+    }
+
+    private synchronized void join(PendingMove pending) {
+        WindowKey key = new WindowKey(pending.move.getAmount().getToken(), pending.fromAccountId);
+        List<PendingMove> window = windows.get(key);
+        if (window == null) {
+            List<PendingMove> opened = new ArrayList<>();
+            windows.put(key, opened);
+            scheduler.schedule(() -> workers.execute(() -> close(key, opened)), windowMillis, TimeUnit.MILLISECONDS);
+            window = opened;
+        }
+        window.add(pending);
+        if (window.size() >= maxBatchSize) {
+            List<PendingMove> full = window;
+            workers.execute(() -> close(key, full));
+        }
+    }
+
+    private void close(WindowKey key, List<PendingMove> window) {
+        synchronized (this) {
+            // Already closed when it filled up, or by its timer.
+            if (windows.get(key) != window) {
+                return;
+            }
+            windows.remove(key);
+        }
+        move(key.fromAccountId, window);
+    }
+
+    private void move(UUID fromAccountId, List<PendingMove> batch) {
+        List<PartyAndAmount<TokenType>> moves = batch.stream().map(pending -> pending.move).collect(Collectors.toList());
+        List<String> deduplicationIds = batch.stream().map(pending -> pending.deduplicationId).collect(Collectors.toList());
+        UUID batchId = UUID.randomUUID();
+        UUID flowId = null;
+        CompletableFuture<SignedTransaction> moved;
+        try {
+            giveToBatch(deduplicationIds, batchId);
+            FlowHandle<SignedTransaction> handle = serviceHub.startFlow(
+                    new MoveBatchFlow(moves, fromAccountId, deduplicationIds, batchId));
+            flowId = handle.getId().getUuid();
+            moved = handle.getReturnValue().toCompletableFuture();
+        } catch (RuntimeException e) {
+            moved = new CompletableFuture<>();
+            moved.completeExceptionally(e);
+        }
+        UUID startedFlowId = flowId;
+        moved.whenCompleteAsync((stx, error) -> {
+            if (error == null) {
+                batch.forEach(pending -> finish(pending, stx, null));
+                return;
+            }
+            // A batch that failed after recording its transaction has moved the tokens; moving again would spend twice.
+            SignedTransaction recorded;
+            try {
+                recorded = startedFlowId == null ? null : recordedTransaction(startedFlowId.toString());
+            } catch (RuntimeException e) {
+                batch.forEach(pending -> finish(pending, null, e));
+                return;
+            }
+            if (recorded != null) {
+                batch.forEach(pending -> finish(pending, recorded, null));
+            } else if (batch.size() == 1) {
+                finish(batch.get(0), null, error);
+            } else {
+                batch.forEach(pending -> move(fromAccountId, Collections.singletonList(pending)));
+            }
+        }, workers);
+    }
+
+    /**
+     * Writes the moves down as given to the batch, in a database transaction of its own that is committed before the
+     * batch flow starts.
+     */
+    private void giveToBatch(List<String> deduplicationIds, UUID batchId) {
+        serviceHub.withEntityManager((EntityManager em) -> {
+            for (String deduplicationId : deduplicationIds) {
+                PersistentCoalescedMove move = em.find(PersistentCoalescedMove.class, deduplicationId);
+                if (move == null) {
+                    em.persist(new PersistentCoalescedMove(deduplicationId, batchId.toString(), null, null, Instant.now()));
+                } else {
+                    move.setBatchId(batchId.toString());
+                    move.setFlowId(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a move away from a batch no flow has claimed, so the batch flow skips it should it run after all.
+     */
+    private boolean takeOver(String deduplicationId, String batchId) {
+        int updated = serviceHub.withEntityManager((EntityManager em) -> em.createNativeQuery(TAKE_OVER_QUERY)
+                .setParameter(1, UUID.randomUUID().toString())
+                .setParameter(2, deduplicationId)
+                .setParameter(3, batchId)
+                .executeUpdate());
+        return updated == 1;
+    }
+
+    /**
+     * Waits for the batch flow that carried a move before the node restarted; moves again only if it never recorded a
+     * transaction.
+     */
+    private void awaitBatch(String flowId, PendingMove pending) {
+        try {
+            // Liveness first: a flow that finishes in between has recorded its transaction by the second check.
+            boolean live = NodeFlows.isLive(serviceHub, flowId);
+            SignedTransaction recorded = recordedTransaction(flowId);
+            if (recorded != null) {
+                finish(pending, recorded, null);
+            } else if (live) {
+                scheduler.schedule(() -> workers.execute(() -> awaitBatch(flowId, pending)),
+                        RECOVERY_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                join(pending);
+            }
+        } catch (RuntimeException e) {
+            finish(pending, null, e);
+        }
+    }
+
+    private void finish(PendingMove pending, SignedTransaction stx, Throwable error) {
+        synchronized (this) {
+            pendingMoves.remove(pending.deduplicationId);
+        }
+        if (error == null) {
+            pending.result.complete(stx);
+        } else {
+            pending.result.completeExceptionally(error);
+        }
+    }
+
+    private SignedTransaction recordedTransaction(String flowId) {
+        List<SecureHash> txIds = NodeFlows.recordedTransactions(serviceHub, flowId);
+        return txIds.isEmpty() ? null : transaction(txIds.get(0));
+    }
+
+    private SignedTransaction transaction(SecureHash txId) {
+        SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(txId);
+        if (stx == null) {
+            throw new IllegalStateException("Transaction " + txId + " of a coalesced move is missing");
+        }
+        return stx;
+    }
+}
@@ -0,0 +1,40 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import net.corda.core.node.AppServiceHub;
+
+import java.net.URISyntaxException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Places the files a service keeps on local disk under the base directory of its node.
+ *
+ * Nodes started in one JVM (MockNetwork, the driver) share a working directory, so a relative path resolved against
+ * it would be written by all of them at once. Every node loads its CorDapps from its own base directory's cordapps
+ * folder, which gives the node's base directory from the jar this CorDapp was loaded from.
+ */
+final class NodeDirectories {
+
+    private NodeDirectories() { }
+
+    /**
+     * @return the configured directory, resolved against the node's base directory unless it is absolute
+     */
+    static Path resolve(AppServiceHub serviceHub, String configured) {
+        Path directory = Paths.get(configured);
+        return directory.isAbsolute() ? directory : baseDirectory(serviceHub).resolve(directory);
+    }
+
+    private static Path baseDirectory(AppServiceHub serviceHub) {
+        try {
+            Path cordapps = Paths.get(serviceHub.getAppContext().getCordapp().getJarPath().toURI()).getParent();
+            if (cordapps != null && cordapps.getParent() != null && cordapps.getFileName().toString().equals("cordapps")) {
+                return cordapps.getParent();
+            }
+        } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException e) {
+            // Not loaded from a jar on the file system; fall back to the working directory.
+        }
+        return Paths.get("").toAbsolutePath();
+    }
+}
@@ -0,0 +1,49 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.ServiceHub;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Asks the node about flows that have left no trace in this CorDapp's own tables, to tell whether a flow that claimed
+ * some work may still finish it and what it recorded before it ended.
+ *
+ * Corda has no API for either, so both read the node's own tables. They were checked against Corda 4.9, platform
+ * version 10: node_checkpoints keeps a row per flow that has not finished, with the ordinal of its
+ * Checkpoint.FlowStatus in status, and node_transactions keeps the id of the flow that recorded each transaction.
+ * Any other version must be checked again before this CorDapp's minimum platform version is raised;
+ * NodeFlowsTests fails if either table changes shape.
+ */
+public final class NodeFlows {
+
+    // Checkpoint.FlowStatus ordinals of flows that may still finish: RUNNABLE (0), HOSPITALIZED (3) and PAUSED (5).
+    private static final String LIVE_FLOW_QUERY =
+            "SELECT COUNT(*) FROM node_checkpoints WHERE flow_id = ? AND status IN (0, 3, 5)";
+    private static final String FLOW_TRANSACTIONS_QUERY =
+            "SELECT tx_id FROM node_transactions WHERE state_machine_run_id = ?";
+
+    private NodeFlows() { }
+
+    /**
+     * @return whether the flow with the given run id is still running, or waits for the flow hospital or a restart
+     */
+    public static boolean isLive(ServiceHub serviceHub, String flowId) {
+        Number count = serviceHub.withEntityManager((EntityManager em) -> (Number) em.createNativeQuery(LIVE_FLOW_QUERY)
+                .setParameter(1, flowId)
+                .getSingleResult());
+        return count.longValue() > 0;
+    }
+
+    /**
+     * @return the ids of every transaction the flow with the given run id recorded, including the ones it resolved
+     */
+    public static List<SecureHash> recordedTransactions(ServiceHub serviceHub, String flowId) {
+        List<?> txIds = serviceHub.withEntityManager((EntityManager em) -> em.createNativeQuery(FLOW_TRANSACTIONS_QUERY)
+                .setParameter(1, flowId)
+                .getResultList());
+        return txIds.stream().map(txId -> SecureHash.parse(txId.toString())).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,221 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionResolutionException;
+import net.corda.core.cordapp.CordappConfig;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.AppServiceHub;
+import net.corda.core.node.services.CordaService;
+import net.corda.core.node.services.Vault;
+import net.corda.core.serialization.SingletonSerializeAsToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.cdc.CdcLogWriter;
+import net.corda.samples.tokenizedhouse.cdc.CdcRecord;
+import net.corda.samples.tokenizedhouse.flows.AssetClass;
+import net.corda.samples.tokenizedhouse.states.FungibleCassinoTokenState;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Writes every committed house and cassino token event seen by the vault to a {@link CdcLogWriter} log, so reporting and
+ * reconciliation can tail it with a CdcLogReader instead of querying the node.
+ *
+ * Each produced or consumed FungibleToken becomes an ISSUE, MOVE or REDEEM record, depending on the token command of
+ * the transaction it was produced or consumed in; each new version of a FungibleHouseTokenState or
+ * FungibleCassinoTokenState becomes a VALUATION record. Vault updates do not say which transaction consumed a state, so
+ * that is taken from the stream of recorded transactions; whichever of the two arrives first waits for the other. Only
+ * the inputs that are house or cassino tokens held by this node's keys are tracked, as no other input ever shows up
+ * consumed in the vault; should either side still fall more than 10000 states behind, the oldest are dropped with a
+ * warning and their CONSUMED records are missing from the log. Records are written after the vault commits, so a node
+ * that dies in between loses those events from the log, never the other way round.
+ *
+ * Capture is off unless cdcEnabled is set in the CorDapp config. The other settings are cdcDirectory ("cdc", resolved
+ * against the node's base directory unless absolute) and cdcRecordsPerSegment (1000000).
+ */
+@CordaService
+public class TokenEventCaptureService extends SingletonSerializeAsToken {
+    private static final Logger logger = LoggerFactory.getLogger(TokenEventCaptureService.class);
+    private static final int TRACKED_REFS = 10_000;
+
+    private final AppServiceHub serviceHub;
+    // Null when capture is off.
+    private final CdcLogWriter writer;
+    // Token inputs of recently recorded transactions not yet seen consumed in the vault, and the transaction consuming them.
+    private final Map<StateRef, SecureHash> consumers = boundedMap("consuming transaction");
+    // Tokens seen consumed in the vault before their consuming transaction was.
+    private final Map<StateRef, FungibleToken> pendingConsumed = boundedMap("consumed token");
+
+    public TokenEventCaptureService(AppServiceHub serviceHub) throws IOException {
+        this.serviceHub = serviceHub;
+        CordappConfig config = serviceHub.getAppContext().getConfig();
+        if (!(config.exists("cdcEnabled") && config.getBoolean("cdcEnabled"))) {
+            this.writer = null;
+            return;
+        }
+        this.writer = new CdcLogWriter(
+                NodeDirectories.resolve(serviceHub, config.exists("cdcDirectory") ? config.getString("cdcDirectory") : "cdc"),
+                config.exists("cdcRecordsPerSegment") ? config.getInt("cdcRecordsPerSegment") : 1_000_000);
+        serviceHub.getValidatedTransactions().getUpdates().subscribe(this::onTransaction);
+        serviceHub.getVaultService().getUpdates().subscribe(this::onVaultUpdate);
+    }
+
+    public boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * @return the offset the next captured event will get
+     */
+    public long nextOffset() {
+        if (writer == null) {
+            throw new IllegalStateException("Token event capture is off; set cdcEnabled in the CorDapp config");
+        }
+        return writer.nextOffset();
+    }
+
+    // An exception in either handler would end its subscription, so failures are only logged.
+
+    private synchronized void onTransaction(SignedTransaction stx) {
+        try {
+            List<StateRef> inputs = stx.getInputs();
+            boolean written = false;
+            for (int i = 0; i < inputs.size(); i++) {
+                FungibleToken pending = pendingConsumed.remove(inputs.get(i));
+                if (pending != null) {
+                    appendToken(pending, stx, i, CdcRecord.Direction.CONSUMED);
+                    written = true;
+                } else if (isOurToken(inputs.get(i))) {
+                    consumers.put(inputs.get(i), stx.getId());
+                }
+            }
+            if (written) {
+                writer.force();
+            }
+        } catch (Exception e) {
+            logger.error("Capturing token events of transaction " + stx.getId() + " failed", e);
+        }
+    }
+
+    private synchronized void onVaultUpdate(Vault.Update<ContractState> update) {
+        try {
+            for (StateAndRef<ContractState> produced : update.getProduced()) {
+                appendProduced(produced);
+            }
+            for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+                ContractState state = consumed.getState().getData();
+                if (!(state instanceof FungibleToken) || assetOf((FungibleToken) state) == null) {
+                    continue;
+                }
+                SecureHash consumer = consumers.remove(consumed.getRef());
+                if (consumer == null) {
+                    pendingConsumed.put(consumed.getRef(), (FungibleToken) state);
+                } else {
+                    SignedTransaction stx = transaction(consumer);
+                    appendToken((FungibleToken) state, stx, stx.getInputs().indexOf(consumed.getRef()),
+                            CdcRecord.Direction.CONSUMED);
+                }
+            }
+            writer.force();
+        } catch (Exception e) {
+            logger.error("Capturing token events failed", e);
+        }
+    }
+
+    /**
+     * Whether the state is a house or cassino token held by one of this node's keys, i.e. one the vault records.
+     */
+    private boolean isOurToken(StateRef ref) {
+        ContractState state;
+        try {
+            state = serviceHub.loadState(ref).getData();
+        } catch (TransactionResolutionException e) {
+            // Not in our transaction storage, so not in our vault either.
+            return false;
+        }
+        if (!(state instanceof FungibleToken) || assetOf((FungibleToken) state) == null) {
+            return false;
+        }
+        PublicKey holder = ((FungibleToken) state).getHolder().getOwningKey();
+        return serviceHub.getKeyManagementService().filterMyKeys(Collections.singletonList(holder)).iterator().hasNext();
+    }
+
+    private void appendProduced(StateAndRef<ContractState> stateAndRef) throws IOException {
+        ContractState state = stateAndRef.getState().getData();
+        StateRef ref = stateAndRef.getRef();
+        if (state instanceof FungibleToken && assetOf((FungibleToken) state) != null) {
+            appendToken((FungibleToken) state, transaction(ref.getTxhash()), ref.getIndex(), CdcRecord.Direction.PRODUCED);
+        } else if (state instanceof FungibleHouseTokenState) {
+            FungibleHouseTokenState house = (FungibleHouseTokenState) state;
+            append(CdcRecord.EventType.VALUATION, CdcRecord.Asset.HOUSE, CdcRecord.Direction.PRODUCED, ref.getTxhash(),
+                    ref.getIndex(), house.getLinearId().getId(), house.getMaintainer().getOwningKey(), house.getValuation());
+        } else if (state instanceof FungibleCassinoTokenState) {
+            FungibleCassinoTokenState cassino = (FungibleCassinoTokenState) state;
+            append(CdcRecord.EventType.VALUATION, CdcRecord.Asset.CASSINO, CdcRecord.Direction.PRODUCED, ref.getTxhash(),
+                    ref.getIndex(), cassino.getLinearId().getId(), cassino.getMaintainer().getOwningKey(),
+                    cassino.getValuation());
+        }
+    }
+
+    private void appendToken(FungibleToken token, SignedTransaction stx, int stateIndex, CdcRecord.Direction direction)
+            throws IOException {
+        CdcRecord.EventType eventType = eventTypeOf(stx, token);
+        if (eventType == null) {
+            logger.warn("No token command for " + token.getIssuedTokenType() + " in transaction " + stx.getId());
+            return;
+        }
+        append(eventType, assetOf(token), direction, stx.getId(), stateIndex,
+                UUID.fromString(token.getTokenType().getTokenIdentifier()), token.getHolder().getOwningKey(),
+                token.getAmount().getQuantity());
+    }
+
+    private void append(CdcRecord.EventType eventType, CdcRecord.Asset asset, CdcRecord.Direction direction,
+                        SecureHash txId, int stateIndex, UUID tokenTypeId, PublicKey holder, long quantity)
+            throws IOException {
+        writer.append(new CdcRecord(-1, System.currentTimeMillis(), eventType, asset, direction, txId.getBytes(),
+                stateIndex, tokenTypeId, SecureHash.sha256(holder.getEncoded()).getBytes(), quantity));
+    }
+
+    private SignedTransaction transaction(SecureHash txId) {
+        SignedTransaction stx = serviceHub.getValidatedTransactions().getTransaction(txId);
+        if (stx == null) {
+            throw new IllegalStateException("Transaction " + txId + " of a vault state is missing");
+        }
+        return stx;
+    }
+
+    private static CdcRecord.Asset assetOf(FungibleToken token) {
+        AssetClass assetClass = TokenEvents.assetOf(token);
+        return assetClass == null ? null : CdcRecord.Asset.valueOf(assetClass.name());
+    }
+
+    private static CdcRecord.EventType eventTypeOf(SignedTransaction stx, FungibleToken token) {
+        TokenEvents.Action action = TokenEvents.actionOf(stx, token);
+        return action == null ? null : CdcRecord.EventType.valueOf(action.name());
+    }
+
+    private static <V> Map<StateRef, V> boundedMap(String tracked) {
+        return new LinkedHashMap<StateRef, V>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StateRef, V> eldest) {
+                if (size() <= TRACKED_REFS) {
+                    return false;
+                }
+                logger.warn("Dropped the " + tracked + " of " + eldest.getKey() + " after tracking " + TRACKED_REFS +
+                        " states; its CONSUMED record will be missing from the token event log");
+                return true;
+            }
+        };
+    }
+}
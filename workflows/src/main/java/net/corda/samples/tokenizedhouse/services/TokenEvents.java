@@ -0,0 +1,60 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.r3.corda.lib.tokens.contracts.commands.IssueTokenCommand;
+import com.r3.corda.lib.tokens.contracts.commands.MoveTokenCommand;
+import com.r3.corda.lib.tokens.contracts.commands.RedeemTokenCommand;
+import com.r3.corda.lib.tokens.contracts.commands.TokenCommand;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import net.corda.core.contracts.Command;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.flows.AssetClass;
+
+/**
+ * Tells which house or cassino token a state is and what a transaction did to it, the same way for every service
+ * that records token events.
+ */
+final class TokenEvents {
+
+    enum Action { ISSUE, MOVE, REDEEM }
+
+    private TokenEvents() { }
+
+    /**
+     * The asset class of a house or cassino token, or null for any other token.
+     */
+    static AssetClass assetOf(FungibleToken token) {
+        if (!(token.getTokenType() instanceof TokenPointer)) {
+            return null;
+        }
+        Class<?> tokenTypeClass = ((TokenPointer<?>) token.getTokenType()).getPointer().getType();
+        for (AssetClass assetClass : AssetClass.values()) {
+            if (assetClass.getTokenTypeClass().equals(tokenTypeClass)) {
+                return assetClass;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The token command the transaction carries for the token's issued token type, or null if it carries none.
+     */
+    static Action actionOf(SignedTransaction stx, FungibleToken token) {
+        for (Command<?> command : stx.getTx().getCommands()) {
+            if (!(command.getValue() instanceof TokenCommand)
+                    || !((TokenCommand) command.getValue()).getToken().equals(token.getIssuedTokenType())) {
+                continue;
+            }
+            if (command.getValue() instanceof IssueTokenCommand) {
+                return Action.ISSUE;
+            }
+            if (command.getValue() instanceof MoveTokenCommand) {
+                return Action.MOVE;
+            }
+            if (command.getValue() instanceof RedeemTokenCommand) {
+                return Action.REDEEM;
+            }
+        }
+        return null;
+    }
+}
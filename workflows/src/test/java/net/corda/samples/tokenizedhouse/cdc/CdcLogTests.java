@@ -0,0 +1,65 @@
+package net.corda.samples.tokenizedhouse.cdc;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CdcLogTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static CdcRecord record(long quantity) {
+        byte[] txId = new byte[32];
+        txId[0] = (byte) quantity;
+        return new CdcRecord(-1, 1000 + quantity, CdcRecord.EventType.MOVE, CdcRecord.Asset.CASSINO,
+                CdcRecord.Direction.PRODUCED, txId, 1, new UUID(7, 8), new byte[32], quantity);
+    }
+
+    @Test
+    public void readerTailsAcrossSegmentsFromAnyOffset() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        CdcLogWriter writer = new CdcLogWriter(directory, 4);
+        CdcLogReader reader = new CdcLogReader(directory, 0);
+        assertNull(reader.poll());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, writer.append(record(i)));
+        }
+        List<CdcRecord> all = reader.poll(100);
+        assertEquals(10, all.size());
+        assertEquals(9, all.get(9).getOffset());
+        assertEquals(CdcRecord.Asset.CASSINO, all.get(9).getAsset());
+        assertEquals(new UUID(7, 8), all.get(9).getTokenTypeId());
+        assertArrayEquals(record(9).getTxId(), all.get(9).getTxId());
+        assertNull(reader.poll());
+
+        writer.append(record(10));
+        assertEquals(10, reader.poll().getQuantity());
+
+        CdcLogReader fromMiddle = new CdcLogReader(directory, 6);
+        assertEquals(6, fromMiddle.poll().getQuantity());
+    }
+
+    @Test
+    public void writerResumesAfterLastRecord() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        CdcLogWriter writer = new CdcLogWriter(directory, 4);
+        for (int i = 0; i < 6; i++) {
+            writer.append(record(i));
+        }
+        writer.close();
+
+        CdcLogWriter reopened = new CdcLogWriter(directory, 4);
+        assertEquals(6, reopened.nextOffset());
+        assertEquals(6, reopened.append(record(6)));
+        assertEquals(7, new CdcLogReader(directory, 0).poll(100).size());
+    }
+}
@@ -0,0 +1,120 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.accounts.workflows.flows.RequestKeyForAccount;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.RedeemFungibleTokens;
+import net.corda.core.contracts.Amount;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.AnonymousParty;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.samples.tokenizedhouse.flows.AccountHistoryFlow.AccountEvent;
+import net.corda.samples.tokenizedhouse.flows.AccountHistoryFlow.AccountHistoryPage;
+import net.corda.samples.tokenizedhouse.services.AccountHistoryService.EventType;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.account;
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AccountHistoryTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork();
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        run(seller, new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer))));
+        run(buyer, new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller))));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 100000, ImmutableList.of(party(buyer))));
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private <T> T run(StartedMockNode node, FlowLogic<T> flow) throws Exception {
+        return network.run(node, flow);
+    }
+
+    private void redeem(StartedMockNode node, String accountName, long quantity) throws Exception {
+        AccountInfo account = account(node, accountName);
+        TokenPointer<FungibleHouseTokenState> tokenPointer = TokenMockNetwork.pointer(node, FungibleHouseTokenState.class, "house");
+        AnonymousParty changeKey = run(node, new RequestKeyForAccount(account));
+        QueryCriteria heldByAccount = new QueryCriteria.VaultQueryCriteria()
+                .withExternalIds(Collections.singletonList(account.getIdentifier().getId()));
+        run(node, new RedeemFungibleTokens(new Amount<TokenType>(quantity, tokenPointer), party(seller),
+                Collections.emptyList(), heldByAccount, changeKey));
+    }
+
+    private List<EventType> eventTypes(AccountHistoryPage page) {
+        return page.getEvents().stream().map(AccountEvent::getEventType).collect(Collectors.toList());
+    }
+
+    @Test
+    public void historyRecordsIssueMoveAndRedeemOfEachAccount() throws Exception {
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 100, "sellerAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 30, "sellerAccount", "buyerAccount", null));
+        redeem(buyer, "buyerAccount", 10);
+
+        AccountHistoryPage sellerHistory = run(seller, new AccountHistoryFlow("sellerAccount", null));
+        assertEquals(ImmutableList.of(EventType.ISSUE, EventType.MOVE_OUT), eventTypes(sellerHistory));
+        assertEquals(100, sellerHistory.getEvents().get(0).getQuantity());
+        assertEquals(30, sellerHistory.getEvents().get(1).getQuantity());
+        assertEquals("house", sellerHistory.getEvents().get(1).getSymbol());
+
+        AccountHistoryPage buyerHistory = run(buyer, new AccountHistoryFlow("buyerAccount", null));
+        assertEquals(ImmutableList.of(EventType.MOVE_IN, EventType.REDEEM), eventTypes(buyerHistory));
+        assertEquals(30, buyerHistory.getEvents().get(0).getQuantity());
+        assertEquals(10, buyerHistory.getEvents().get(1).getQuantity());
+        assertEquals(sellerHistory.getEvents().get(1).getTxId(), buyerHistory.getEvents().get(0).getTxId());
+        assertNull(buyerHistory.getNextCursor());
+    }
+
+    @Test
+    public void moveOfTheWholeHoldingIsRecorded() throws Exception {
+        // No state of the seller comes out of the move, so its vault update holds the consumption only
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 40, "sellerAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 40, "sellerAccount", "buyerAccount", null));
+
+        AccountHistoryPage sellerHistory = run(seller, new AccountHistoryFlow("sellerAccount", null));
+        assertEquals(ImmutableList.of(EventType.ISSUE, EventType.MOVE_OUT), eventTypes(sellerHistory));
+        assertEquals(40, sellerHistory.getEvents().get(1).getQuantity());
+    }
+
+    @Test
+    public void cursorPagesThroughTheHistory() throws Exception {
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 100, "sellerAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 30, "sellerAccount", "buyerAccount", null));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 20, "sellerAccount", "buyerAccount", null));
+
+        AccountHistoryPage first = run(seller, new AccountHistoryFlow("sellerAccount", "house", null, null, null, 2));
+        assertEquals(ImmutableList.of(EventType.ISSUE, EventType.MOVE_OUT), eventTypes(first));
+        assertNotNull(first.getNextCursor());
+
+        AccountHistoryPage second = run(seller, new AccountHistoryFlow("sellerAccount", "house", null, null, first.getNextCursor(), 2));
+        assertEquals(ImmutableList.of(EventType.MOVE_OUT), eventTypes(second));
+        assertEquals(20, second.getEvents().get(0).getQuantity());
+        assertNull(second.getNextCursor());
+
+        AccountHistoryPage otherSymbol = run(seller, new AccountHistoryFlow("sellerAccount", "cassino", null, null, null, 2));
+        assertEquals(0, otherSymbol.getEvents().size());
+    }
+}
@@ -0,0 +1,91 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import net.corda.core.flows.FlowLogic;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.account;
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AccountHoldingsTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork();
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        run(seller, new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer))));
+        run(seller, new CreateAndShareAccountFlow("otherAccount", ImmutableList.of(party(buyer))));
+        run(buyer, new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller))));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 1000));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 30, "sellerAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 20, "otherAccount"));
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private <T> T run(StartedMockNode node, FlowLogic<T> flow) throws Exception {
+        return network.run(node, flow);
+    }
+
+    private long balance(StartedMockNode node, String accountName) {
+        TokenPointer<FungibleHouseTokenState> tokenPointer = TokenMockNetwork.pointer(seller, FungibleHouseTokenState.class, "house");
+        AccountInfo account = account(node, accountName);
+        return node.transaction(() ->
+                VaultLookups.balanceForAccount(node.getServices(), tokenPointer, account.getIdentifier().getId()));
+    }
+
+    @Test
+    public void moveWithoutFromAccountTakesAnAccountHoldingEnough() throws Exception {
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 25, null, "buyerAccount", null));
+
+        // Only sellerAccount holds 25, and the change stays with it
+        assertEquals(5, balance(seller, "sellerAccount"));
+        assertEquals(20, balance(seller, "otherAccount"));
+        assertEquals(25, balance(buyer, "buyerAccount"));
+    }
+
+    @Test
+    public void moveWithoutFromAccountFailsIfNoAccountHoldsEnough() throws Exception {
+        try {
+            // 50 in all, but no account holds 40 by itself
+            run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 40, null, "buyerAccount", null));
+            fail("Moved tokens of more than one account");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("No account holds 40"));
+        }
+        assertEquals(30, balance(seller, "sellerAccount"));
+        assertEquals(20, balance(seller, "otherAccount"));
+    }
+
+    @Test
+    public void accountKeysAreReused() throws Exception {
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 10, "sellerAccount"));
+
+        long holderKeys = seller.transaction(() -> seller.getServices().getVaultService()
+                .queryBy(FungibleToken.class, AccountHoldings.heldBy(account(seller, "sellerAccount"))).getStates().stream()
+                .map(token -> token.getState().getData().getHolder())
+                .distinct()
+                .count());
+        assertEquals(1, holderKeys);
+    }
+}
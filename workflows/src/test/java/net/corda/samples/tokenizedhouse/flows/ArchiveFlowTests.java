@@ -0,0 +1,126 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.node.services.Vault;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.samples.tokenizedhouse.flows.ArchiveFlows.ArchivedState;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.account;
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Archives with a retention of 0 days and one state per batch, so every consumed token is due and each run of the
+ * flow archives at most one.
+ */
+public class ArchiveFlowTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork(ImmutableMap.of(
+                "archiveRetentionDays", 0,
+                "archiveBatchSize", 1,
+                "archiveDirectory", folder.getRoot().getAbsolutePath()), true);
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        seller.startFlow(new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer)))).get();
+        buyer.startFlow(new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller)))).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 1000)).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 100, "sellerAccount")).get();
+        // Each move consumes the seller's holding and leaves it the change.
+        for (int i = 0; i < 3; i++) {
+            seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 10, "sellerAccount", "buyerAccount", null)).get();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private List<StateRef> consumedTokens() {
+        QueryCriteria consumed = new QueryCriteria.VaultQueryCriteria(Vault.StateStatus.CONSUMED);
+        return seller.transaction(() -> seller.getServices().getVaultService().queryBy(FungibleToken.class, consumed)
+                .getStates().stream()
+                .map(StateAndRef::getRef)
+                .collect(Collectors.toList()));
+    }
+
+    private List<StateRef> archivedTokens() throws Exception {
+        String tokenIdentifier = TokenMockNetwork.pointer(seller, FungibleHouseTokenState.class, "house").getTokenIdentifier();
+        List<ArchivedState> archived = seller.startFlow(new ArchiveFlows.GetArchivedByLinearId(tokenIdentifier)).get();
+        return archived.stream()
+                .map(state -> new StateRef(state.getTransaction().getId(), state.getOutputIndex()))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void consumedTokensAreMovedToTheArchive() throws Exception {
+        List<StateRef> consumed = consumedTokens();
+        assertEquals(3, consumed.size());
+
+        int total = 0;
+        int archived;
+        do {
+            archived = seller.startFlow(new ArchiveFlows.ArchiveConsumedStatesFlow()).get();
+            total += archived;
+        } while (archived > 0);
+
+        assertEquals(3, total);
+        assertTrue(consumedTokens().isEmpty());
+        assertEquals(consumed.size(), archivedTokens().size());
+        assertTrue(archivedTokens().containsAll(consumed));
+        List<ArchivedState> byTransaction = seller.startFlow(
+                new ArchiveFlows.GetArchivedByTransaction(consumed.get(0).getTxhash().toString())).get();
+        assertEquals(consumed.get(0).getTxhash(), byTransaction.get(0).getTransaction().getId());
+
+        // The vault still moves the unconsumed change
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 10, "sellerAccount", "buyerAccount", null)).get();
+        TokenPointer<FungibleHouseTokenState> tokenPointer = TokenMockNetwork.pointer(seller, FungibleHouseTokenState.class, "house");
+        UUID sellerAccount = account(seller, "sellerAccount").getIdentifier().getId();
+        long balance = seller.transaction(() -> VaultLookups.balanceForAccount(seller.getServices(), tokenPointer, sellerAccount));
+        assertEquals(60, balance);
+    }
+
+    @Test
+    public void concurrentRunsArchiveEachStateOnce() throws Exception {
+        List<CordaFuture<Integer>> runs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            runs.add(seller.startFlow(new ArchiveFlows.ArchiveConsumedStatesFlow()));
+        }
+        int total = 0;
+        for (CordaFuture<Integer> run : runs) {
+            total += run.get();
+        }
+
+        assertEquals(3, total);
+        assertTrue(consumedTokens().isEmpty());
+        assertEquals(3, archivedTokens().size());
+    }
+}
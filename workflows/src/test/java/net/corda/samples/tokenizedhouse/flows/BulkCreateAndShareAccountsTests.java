@@ -0,0 +1,137 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowSession;
+import net.corda.core.flows.SendStateAndRefFlow;
+import net.corda.core.identity.Party;
+import net.corda.samples.tokenizedhouse.flows.BulkCreateAndShareAccountsFlow.AccountResult;
+import net.corda.samples.tokenizedhouse.flows.BulkCreateAndShareAccountsFlow.AccountStatus;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.account;
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkCreateAndShareAccountsTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork(Collections.emptyMap(), true);
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private StateAndRef<? extends ContractState> stateOf(StartedMockNode node, Class<? extends ContractState> stateClass) {
+        return node.transaction(() -> node.getServices().getVaultService().queryBy(stateClass).getStates().get(0));
+    }
+
+    private static void assertRejected(ExecutionException e, String reason) {
+        assertTrue("Unexpected failure: " + e.getCause().getMessage(), e.getCause().getMessage().contains(reason));
+    }
+
+    @Test
+    public void everyAccountReportsThePartiesThatHaveIt() throws Exception {
+        seller.startFlow(new CreateAndShareAccountFlow("acc1", Collections.emptyList())).get();
+        List<String> names = ImmutableList.of("acc1", "acc2", "acc3", "acc4", "acc5");
+
+        List<AccountResult> results = seller.startFlow(
+                new BulkCreateAndShareAccountsFlow(names, ImmutableList.of(party(buyer)), 2, 8)).get();
+
+        assertEquals(names.size(), results.size());
+        assertEquals(AccountStatus.ALREADY_EXISTS, results.get(0).getStatus());
+        for (int i = 0; i < names.size(); i++) {
+            AccountResult result = results.get(i);
+            assertEquals(names.get(i), result.getAccountName());
+            assertEquals(ImmutableList.of(party(buyer)), result.getSharedWith());
+            assertTrue(result.getShareFailedWith().isEmpty());
+            assertEquals(result.getAccountId(), account(buyer, names.get(i)).getIdentifier().getId());
+        }
+    }
+
+    @Test
+    public void onlyAcknowledgedBatchesAreReported() throws Exception {
+        seller.startFlow(new CreateAndShareAccountFlow("acc1", Collections.emptyList())).get();
+        UUID acc1 = account(seller, "acc1").getIdentifier().getId();
+
+        // The second batch names an account the seller does not have, so sharing stops after the first
+        List<UUID> shared = seller.startFlow(new BulkCreateAndShareAccountsFlow.ShareAccountsBatchFlow(
+                party(buyer), ImmutableList.of(acc1, UUID.randomUUID()), 1)).get();
+
+        assertEquals(ImmutableList.of(acc1), shared);
+        assertEquals(acc1, account(buyer, "acc1").getIdentifier().getId());
+    }
+
+    @Test
+    public void statesOtherThanAccountsAreNotRecorded() throws Exception {
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 1000)).get();
+
+        try {
+            seller.startFlow(new ShareOtherStateFlow(party(buyer), stateOf(seller, FungibleHouseTokenState.class))).get();
+            fail("A token type was shared as an account");
+        } catch (ExecutionException e) {
+            assertRejected(e, "is not an account hosted by " + party(seller));
+        }
+        assertTrue(buyer.transaction(() ->
+                buyer.getServices().getVaultService().queryBy(FungibleHouseTokenState.class).getStates().isEmpty()));
+    }
+
+    @Test
+    public void accountsHostedByAnotherNodeAreNotRecorded() throws Exception {
+        buyer.startFlow(new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller)))).get();
+
+        try {
+            seller.startFlow(new ShareOtherStateFlow(party(buyer), stateOf(seller, AccountInfo.class))).get();
+            fail("An account of the buyer was shared by the seller");
+        } catch (ExecutionException e) {
+            assertRejected(e, "is not an account hosted by " + party(seller));
+        }
+    }
+
+    /**
+     * Talks to the share responder as a batch of one, but sends whatever state it is given.
+     */
+    static class ShareOtherStateFlow extends BulkCreateAndShareAccountsFlow.ShareAccountsBatchFlow {
+        private final Party party;
+        private final StateAndRef<? extends ContractState> state;
+
+        ShareOtherStateFlow(Party party, StateAndRef<? extends ContractState> state) {
+            super(party, Collections.emptyList(), 1);
+            this.party = party;
+            this.state = state;
+        }
+
+        @Override
+        @Suspendable
+        public List<UUID> call() throws FlowException {
+            FlowSession session = initiateFlow(party);
+            session.send(1);
+            subFlow(new SendStateAndRefFlow(session, Collections.<StateAndRef<?>>singletonList(state)));
+            session.receive(Boolean.class).unwrap(recorded -> recorded);
+            return Collections.emptyList();
+        }
+    }
+}
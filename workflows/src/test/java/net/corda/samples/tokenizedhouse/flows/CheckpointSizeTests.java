@@ -0,0 +1,135 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.accounts.workflows.flows.RequestKeyForAccount;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parks a move on a stopped counterparty and measures the checkpoint it leaves in the node's database, once with one
+ * token type in the vault and once with many. The move flow's checkpoint must not grow with the number of token types;
+ * a move that keeps the token type query result across its suspension, as the flows did before {@link VaultLookups},
+ * is measured the same way to show the test tells the two apart.
+ */
+public class CheckpointSizeTests {
+    private static final int MORE_TOKEN_TYPES = 50;
+    private static final long ALLOWED_GROWTH_BYTES = 1024;
+
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork(Collections.emptyMap(), true);
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        seller.startFlow(new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer)))).get();
+        buyer.startFlow(new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller)))).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house0", 100000)).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house0", 50, "sellerAccount")).get();
+        // With the buyer down a move suspends asking it for a key, leaving its checkpoint in the seller's database.
+        buyer.stop();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    @Test
+    public void moveCheckpointDoesNotGrowWithTokenTypes() throws Exception {
+        long growth = checkpointGrowth(symbol ->
+                new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow(symbol, 10, "sellerAccount", "buyerAccount", null));
+        assertTrue("Move checkpoint grew by " + growth + " bytes with the number of token types",
+                growth < ALLOWED_GROWTH_BYTES);
+    }
+
+    @Test
+    public void queryResultHeldAcrossSuspensionGrowsTheCheckpoint() throws Exception {
+        long growth = checkpointGrowth(QueryResultHoldingMoveFlow::new);
+        assertTrue("Checkpoint grew by only " + growth + " bytes although it holds every token type",
+                growth >= ALLOWED_GROWTH_BYTES);
+    }
+
+    private long checkpointGrowth(Function<String, FlowLogic<?>> move) throws Exception {
+        long small = parkedCheckpointSize(move.apply("house0"));
+        for (int i = 1; i <= MORE_TOKEN_TYPES; i++) {
+            seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house" + i, 100000)).get();
+        }
+        long large = parkedCheckpointSize(move.apply("house0"));
+        return large - small;
+    }
+
+    /**
+     * The size of the checkpoint the flow leaves once parked; flows parked earlier keep theirs unchanged.
+     */
+    private long parkedCheckpointSize(FlowLogic<?> flow) throws InterruptedException {
+        long before = seller.transaction(() -> checkpointBytes(seller));
+        seller.startFlow(flow);
+        long previous = -1;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long size = seller.transaction(() -> checkpointBytes(seller));
+            // Wait until the flow is parked, i.e. its checkpoint stops changing.
+            if (size > before && size == previous) {
+                return size - before;
+            }
+            previous = size;
+            Thread.sleep(200);
+        }
+        throw new AssertionError("Move flow never parked on the stopped counterparty");
+    }
+
+    private static long checkpointBytes(StartedMockNode node) {
+        try (Statement statement = node.getServices().jdbcSession().createStatement();
+             ResultSet rs = statement.executeQuery(
+                     "SELECT COALESCE(SUM(LENGTH(checkpoint_value)), 0) + COALESCE(SUM(LENGTH(flow_state)), 0) FROM node_checkpoint_blobs")) {
+            rs.next();
+            return rs.getLong(1);
+        } catch (Exception e) {
+            throw new RuntimeException("Caught exception reading checkpoints: ", e);
+        }
+    }
+
+    /**
+     * Looks the token type up as the move flows did before {@link VaultLookups}: the list of every token type in the
+     * vault is still a local of this frame when the flow suspends to ask the buyer for a key.
+     */
+    static class QueryResultHoldingMoveFlow extends FlowLogic<Integer> {
+        private final String symbol;
+
+        QueryResultHoldingMoveFlow(String symbol) {
+            this.symbol = symbol;
+        }
+
+        @Override
+        @Suspendable
+        public Integer call() throws FlowException {
+            List<StateAndRef<FungibleHouseTokenState>> tokenTypes =
+                    getServiceHub().getVaultService().queryBy(FungibleHouseTokenState.class).getStates();
+            AccountInfo toAccount = VaultLookups.accountByName(this, "buyerAccount");
+            subFlow(new RequestKeyForAccount(toAccount));
+            return (int) tokenTypes.stream()
+                    .filter(tokenType -> tokenType.getState().getData().getSymbol().equals(symbol))
+                    .count();
+        }
+    }
+}
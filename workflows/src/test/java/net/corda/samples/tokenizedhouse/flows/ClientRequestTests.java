@@ -0,0 +1,72 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.tokens.contracts.states.FungibleToken;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClientRequestTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork();
+        seller = network.createNode(TokenMockNetwork.SELLER);
+
+        network.run(seller, new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of()));
+        network.run(seller, new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 100000));
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private SignedTransaction issue(String clientRequestId) throws Exception {
+        return issue(50, clientRequestId);
+    }
+
+    private SignedTransaction issue(int quantity, String clientRequestId) throws Exception {
+        return network.run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow(
+                "house", quantity, "sellerAccount", clientRequestId));
+    }
+
+    private int issued() {
+        return seller.transaction(() ->
+                seller.getServices().getVaultService().queryBy(FungibleToken.class).getStates().size());
+    }
+
+    @Test
+    public void repeatedRequestIdReturnsTheOriginalTransaction() throws Exception {
+        SignedTransaction first = issue("request-1");
+        SignedTransaction retry = issue("request-1");
+        SignedTransaction other = issue("request-2");
+
+        assertEquals(first.getId(), retry.getId());
+        assertNotEquals(first.getId(), other.getId());
+        assertEquals(2, issued());
+    }
+
+    @Test
+    public void requestIdReusedWithOtherParametersIsRejected() throws Exception {
+        issue(50, "request-1");
+        try {
+            issue(60, "request-1");
+            fail("A reused request id was answered with the transaction of another request");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("already used with other parameters"));
+        }
+        assertEquals(1, issued());
+    }
+}
@@ -0,0 +1,102 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.accounts.workflows.flows.RequestKeyForAccount;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.identity.AnonymousParty;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.services.MoveCoalescingService;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.account;
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Runs with a node thread per node, so the coalescing windows close and start their batch flows on their own.
+ */
+public class MoveCoalescingTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork(ImmutableMap.of("moveCoalesceWindowMillis", 1000), true);
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        seller.startFlow(new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer)))).get();
+        buyer.startFlow(new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller)))).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 100000)).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 100, "sellerAccount")).get();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private TokenPointer<FungibleHouseTokenState> house() {
+        return TokenMockNetwork.pointer(seller, FungibleHouseTokenState.class, "house");
+    }
+
+    private long balance(StartedMockNode node, String accountName) {
+        TokenPointer<FungibleHouseTokenState> tokenPointer = house();
+        AccountInfo account = account(node, accountName);
+        return node.transaction(() ->
+                VaultLookups.balanceForAccount(node.getServices(), tokenPointer, account.getIdentifier().getId()));
+    }
+
+    @Test
+    public void concurrentMovesShareOneTransaction() throws Exception {
+        List<CordaFuture<SignedTransaction>> moves = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            moves.add(seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow(
+                    "house", 10, "sellerAccount", "buyerAccount", null)));
+        }
+        SignedTransaction first = moves.get(0).get();
+        for (CordaFuture<SignedTransaction> move : moves) {
+            assertEquals(first.getId(), move.get().getId());
+        }
+
+        // One output for each move, and the change back to the seller's account
+        assertEquals(4, first.getTx().getOutputs().size());
+        assertEquals(70, balance(seller, "sellerAccount"));
+        assertEquals(30, balance(buyer, "buyerAccount"));
+    }
+
+    @Test
+    public void resubmittedDeduplicationIdMovesOnce() throws Exception {
+        MoveCoalescingService coalescer = seller.getServices().cordaService(MoveCoalescingService.class);
+        AnonymousParty recipient = seller.startFlow(new RequestKeyForAccount(account(seller, "buyerAccount"))).get();
+        Amount<TokenType> amount = new Amount<TokenType>(10, house());
+        AccountInfo sellerAccount = account(seller, "sellerAccount");
+
+        CompletableFuture<SignedTransaction> submitted =
+                coalescer.submit("move-1", amount, recipient, sellerAccount.getIdentifier().getId());
+        // Handed over again while the window is open, as by a flow resumed after a restart
+        assertSame(submitted, coalescer.submit("move-1", amount, recipient, sellerAccount.getIdentifier().getId()));
+        SignedTransaction moved = submitted.get();
+
+        // Handed over again after the move was made: answered from coalesced_move
+        SignedTransaction again = coalescer.submit("move-1", amount, recipient, sellerAccount.getIdentifier().getId()).get();
+        assertEquals(moved.getId(), again.getId());
+        assertEquals(90, balance(seller, "sellerAccount"));
+        assertEquals(10, balance(buyer, "buyerAccount"));
+    }
+}
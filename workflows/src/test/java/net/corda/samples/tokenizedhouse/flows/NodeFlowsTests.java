@@ -0,0 +1,102 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.google.common.collect.ImmutableList;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.flows.StateMachineRunId;
+import net.corda.samples.tokenizedhouse.services.NodeFlows;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link NodeFlows} against the node tables of the Corda version this CorDapp is built with, so a version that
+ * changes them fails here rather than in the services that depend on it.
+ */
+public class NodeFlowsTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork(Collections.emptyMap(), true);
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        seller.startFlow(new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer)))).get();
+        buyer.startFlow(new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller)))).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 1000)).get();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 50, "sellerAccount")).get();
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    @Test
+    public void finishedFlowIsNotLiveAndListsItsTransaction() throws Exception {
+        String flowId = seller.startFlow(new CreateReportingRunId("otherHouse")).get().getUuid().toString();
+        StateAndRef<FungibleHouseTokenState> created = seller.transaction(() -> seller.getServices().getVaultService()
+                .queryBy(FungibleHouseTokenState.class).getStates().stream()
+                .filter(tokenType -> tokenType.getState().getData().getSymbol().equals("otherHouse"))
+                .findFirst().orElseThrow(() -> new IllegalStateException("No token type otherHouse")));
+
+        assertFalse(seller.transaction(() -> NodeFlows.isLive(seller.getServices(), flowId)));
+        List<SecureHash> recorded = seller.transaction(() -> NodeFlows.recordedTransactions(seller.getServices(), flowId));
+        assertEquals(ImmutableList.of(created.getRef().getTxhash()), recorded);
+    }
+
+    @Test
+    public void parkedFlowIsLive() throws Exception {
+        // With the buyer down a move suspends asking it for a key, leaving its checkpoint in the seller's database.
+        buyer.stop();
+        seller.startFlow(new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 10, "sellerAccount", "buyerAccount", null));
+        for (int attempt = 0; attempt < 100; attempt++) {
+            List<String> flowIds = seller.transaction(() -> seller
+                    .findStateMachines(RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow.class).stream()
+                    .map(running -> running.getFirst().getRunId().getUuid().toString())
+                    .filter(flowId -> NodeFlows.isLive(seller.getServices(), flowId))
+                    .collect(Collectors.toList()));
+            if (!flowIds.isEmpty()) {
+                assertTrue(seller.transaction(() -> NodeFlows.recordedTransactions(seller.getServices(), flowIds.get(0))).isEmpty());
+                return;
+            }
+            Thread.sleep(200);
+        }
+        throw new AssertionError("Parked move flow never showed up as live");
+    }
+
+    /**
+     * Creates a house token type and returns the run id that recorded it.
+     */
+    static class CreateReportingRunId extends FlowLogic<StateMachineRunId> {
+        private final String symbol;
+
+        CreateReportingRunId(String symbol) {
+            this.symbol = symbol;
+        }
+
+        @Override
+        @Suspendable
+        public StateMachineRunId call() throws FlowException {
+            subFlow(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow(symbol, 1000));
+            return getRunId();
+        }
+    }
+}
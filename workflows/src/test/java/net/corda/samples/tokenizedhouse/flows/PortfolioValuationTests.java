@@ -0,0 +1,98 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.samples.tokenizedhouse.flows.PortfolioValuationFlow.AccountValuation;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PortfolioValuationTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork();
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        run(seller, new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer))));
+        run(seller, new CreateAndShareAccountFlow("otherAccount", ImmutableList.of(party(buyer))));
+        run(buyer, new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller))));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 1000));
+        run(seller, new CassinoEvolvableFungibleTokenFlow.CreateCassinoTokenFlow("cassino", 20));
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private <T> T run(StartedMockNode node, FlowLogic<T> flow) throws Exception {
+        return network.run(node, flow);
+    }
+
+    private static UUID accountId(StartedMockNode node, String name) {
+        return TokenMockNetwork.account(node, name).getIdentifier().getId();
+    }
+
+    private static AccountValuation find(List<AccountValuation> valuations, UUID accountId, AssetClass assetClass) {
+        return valuations.stream()
+                .filter(valuation -> accountId.equals(valuation.getAccountId()) && valuation.getAssetClass() == assetClass)
+                .findFirst().orElseThrow(() -> new AssertionError("No " + assetClass + " valuation of " + accountId));
+    }
+
+    @Test
+    public void holdingsAreValuedPerAccountAndAssetClass() throws Exception {
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 100, "sellerAccount"));
+        run(seller, new CassinoEvolvableFungibleTokenFlow.IssueCassinoTokenFlow("cassino", 5, "sellerAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 40, "otherAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 30, "sellerAccount", "buyerAccount", null));
+
+        List<AccountValuation> valuations = run(seller, new PortfolioValuationFlow());
+        assertEquals(3, valuations.size());
+        assertTrue(valuations.stream().allMatch(valuation -> valuation.getAccountId() != null));
+
+        UUID sellerAccount = accountId(seller, "sellerAccount");
+        AccountValuation sellerHouse = find(valuations, sellerAccount, AssetClass.HOUSE);
+        assertEquals(70, sellerHouse.getQuantity());
+        assertEquals(70 * 1000, sellerHouse.getTotalValue());
+        AccountValuation sellerCassino = find(valuations, sellerAccount, AssetClass.CASSINO);
+        assertEquals(5, sellerCassino.getQuantity());
+        assertEquals(5 * 20, sellerCassino.getTotalValue());
+        AccountValuation otherHouse = find(valuations, accountId(seller, "otherAccount"), AssetClass.HOUSE);
+        assertEquals(40 * 1000, otherHouse.getTotalValue());
+    }
+
+    @Test
+    public void pagesDoNotOverlap() throws Exception {
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 100, "sellerAccount"));
+        run(seller, new CassinoEvolvableFungibleTokenFlow.IssueCassinoTokenFlow("cassino", 5, "sellerAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 40, "otherAccount"));
+
+        List<AccountValuation> first = run(seller, new PortfolioValuationFlow(new PageSpecification(1, 2)));
+        List<AccountValuation> second = run(seller, new PortfolioValuationFlow(new PageSpecification(2, 2)));
+        assertEquals(2, first.size());
+        assertEquals(1, second.size());
+
+        Set<String> rows = new HashSet<>();
+        for (AccountValuation valuation : first) {
+            rows.add(valuation.getAccountId() + "/" + valuation.getAssetClass());
+        }
+        rows.add(second.get(0).getAccountId() + "/" + second.get(0).getAssetClass());
+        assertEquals(3, rows.size());
+    }
+}
@@ -0,0 +1,152 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import com.r3.corda.lib.tokens.contracts.types.TokenType;
+import com.r3.corda.lib.tokens.workflows.flows.rpc.RedeemFungibleTokens;
+import net.corda.core.contracts.Amount;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.services.vault.QueryCriteria;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.samples.tokenizedhouse.flows.BackchainSnippingFlow.HoldingDepth;
+import net.corda.samples.tokenizedhouse.services.ChainSnipSchemaV1.PersistentPendingReissue;
+import net.corda.samples.tokenizedhouse.services.ChainSnipSchemaV1.PersistentSnipRequest;
+import net.corda.samples.tokenizedhouse.states.FungibleHouseTokenState;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.account;
+import static net.corda.samples.tokenizedhouse.flows.TokenMockNetwork.party;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Both nodes snip holdings at least 3 transactions deep: the seller's issuance, its move to the buyer and one move
+ * between the buyer's accounts.
+ */
+public class SnipChainTests {
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+    private StartedMockNode buyer;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork(ImmutableMap.of(BackchainSnippingFlow.THRESHOLD_CONFIG_KEY, 3), false);
+        seller = network.createNode(TokenMockNetwork.SELLER);
+        buyer = network.createNode(TokenMockNetwork.BUYER);
+
+        run(seller, new CreateAndShareAccountFlow("sellerAccount", ImmutableList.of(party(buyer))));
+        run(buyer, new CreateAndShareAccountFlow("buyerAccount", ImmutableList.of(party(seller))));
+        run(buyer, new CreateAndShareAccountFlow("savingsAccount", ImmutableList.of(party(seller))));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 1000, ImmutableList.of(party(buyer))));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", 10, "sellerAccount"));
+        run(seller, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 10, "sellerAccount", "buyerAccount", null));
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private <T> T run(StartedMockNode node, FlowLogic<T> flow) throws Exception {
+        return network.run(node, flow);
+    }
+
+    private void deepen() throws Exception {
+        run(buyer, new RealEstateEvolvableFungibleTokenFlow.MoveHouseTokenFlow("house", 10, "buyerAccount", "savingsAccount", null));
+    }
+
+    private TokenPointer<FungibleHouseTokenState> house() {
+        return TokenMockNetwork.pointer(buyer, FungibleHouseTokenState.class, "house");
+    }
+
+    private long balance(String accountName) {
+        TokenPointer<FungibleHouseTokenState> tokenPointer = house();
+        AccountInfo account = account(buyer, accountName);
+        return buyer.transaction(() ->
+                VaultLookups.balanceForAccount(buyer.getServices(), tokenPointer, account.getIdentifier().getId()));
+    }
+
+    private List<Integer> depths() throws Exception {
+        List<HoldingDepth> holdings = run(buyer, new BackchainSnippingFlow.GetHouseTokenChainDepth("house"));
+        return holdings.stream().map(HoldingDepth::getDepth).collect(Collectors.toList());
+    }
+
+    private long snipRequests() {
+        return seller.transaction(() -> seller.getServices().withEntityManager((EntityManager em) -> em
+                .createQuery("SELECT COUNT(s) FROM " + PersistentSnipRequest.class.getName() + " s", Long.class)
+                .getSingleResult()));
+    }
+
+    private static void assertRejected(Exception e, String reason) {
+        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+        assertTrue("Unexpected failure: " + cause.getMessage(), cause.getMessage().contains(reason));
+    }
+
+    @Test
+    public void deepHoldingIsRedeemedAndReissuedOnce() throws Exception {
+        deepen();
+        assertEquals(ImmutableList.of(3), depths());
+
+        List<SecureHash> reissued = run(buyer, new BackchainSnippingFlow.SnipHouseTokenChainFlow("house"));
+        assertEquals(1, reissued.size());
+        assertEquals(ImmutableList.of(1), depths());
+        assertEquals(10, balance("savingsAccount"));
+        assertEquals(Collections.emptyList(), run(buyer, new BackchainSnippingFlow.GetPendingReissues()));
+        assertEquals(1, snipRequests());
+    }
+
+    @Test
+    public void redemptionWithoutSnipRequestIsNotReissued() throws Exception {
+        deepen();
+        AccountInfo savings = account(buyer, "savingsAccount");
+        QueryCriteria heldBySavings = new QueryCriteria.VaultQueryCriteria()
+                .withExternalIds(Collections.singletonList(savings.getIdentifier().getId()));
+        SignedTransaction redeemTx = run(buyer, new RedeemFungibleTokens(new Amount<TokenType>(10, house()), party(seller),
+                Collections.emptyList(), heldBySavings, null));
+        // Passed off as a snip whose re-issuance went missing
+        buyer.transaction(() -> {
+            buyer.getServices().withEntityManager((EntityManager em) -> {
+                em.persist(new PersistentPendingReissue(redeemTx.getId().toString(), party(seller).getName().toString(), Instant.now()));
+            });
+            return null;
+        });
+
+        try {
+            run(buyer, new BackchainSnippingFlow.ReissueSnippedRedemption(redeemTx.getId()));
+            fail("The issuer re-issued a redemption it never approved");
+        } catch (ExecutionException e) {
+            assertRejected(e, "has no snip request");
+        }
+        assertEquals(0, balance("savingsAccount"));
+        assertEquals(0, snipRequests());
+    }
+
+    @Test
+    public void issuerRejectsHoldingsBelowItsThreshold() throws Exception {
+        assertEquals(ImmutableList.of(2), depths());
+
+        try {
+            run(buyer, new BackchainSnippingFlow.SnipHouseTokenChainFlow("house", 1));
+            fail("The issuer approved a holding below its threshold");
+        } catch (ExecutionException e) {
+            assertRejected(e, "below 3");
+        }
+        assertEquals(ImmutableList.of(2), depths());
+        assertEquals(10, balance("buyerAccount"));
+        assertEquals(0, snipRequests());
+    }
+}
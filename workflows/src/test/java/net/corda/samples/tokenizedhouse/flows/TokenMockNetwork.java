@@ -0,0 +1,101 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import com.r3.corda.lib.accounts.contracts.states.AccountInfo;
+import com.r3.corda.lib.tokens.contracts.states.EvolvableTokenType;
+import com.r3.corda.lib.tokens.contracts.types.TokenPointer;
+import net.corda.core.concurrent.CordaFuture;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.identity.CordaX500Name;
+import net.corda.core.identity.Party;
+import net.corda.testing.node.MockNetwork;
+import net.corda.testing.node.MockNetworkNotarySpec;
+import net.corda.testing.node.MockNetworkParameters;
+import net.corda.testing.node.StartedMockNode;
+import net.corda.testing.node.TestCordapp;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The MockNetwork the flow tests run on: a notary, and nodes with this CorDapp and the token, account and confidential
+ * identity CorDapps it depends on. Unless each node runs on a thread of its own, {@link #run} delivers the messages
+ * of the network until the flow completes.
+ */
+public class TokenMockNetwork {
+    public static final CordaX500Name NOTARY = CordaX500Name.parse("O=Notary,L=London,C=GB");
+    public static final CordaX500Name SELLER = CordaX500Name.parse("O=Seller,L=London,C=GB");
+    public static final CordaX500Name BUYER = CordaX500Name.parse("O=Buyer,L=New York,C=US");
+
+    private final MockNetwork network;
+    private final boolean threadPerNode;
+
+    public TokenMockNetwork() {
+        this(Collections.emptyMap(), false);
+    }
+
+    /**
+     * @param flowsConfig the CorDapp config of the workflows CorDapp
+     * @param threadPerNode whether each node runs on a thread of its own, so flows complete without {@link #runNetwork}
+     */
+    public TokenMockNetwork(Map<String, Object> flowsConfig, boolean threadPerNode) {
+        this.threadPerNode = threadPerNode;
+        this.network = new MockNetwork(new MockNetworkParameters()
+                .withThreadPerNode(threadPerNode)
+                .withNotarySpecs(ImmutableList.of(new MockNetworkNotarySpec(NOTARY)))
+                .withCordappsForAllNodes(ImmutableList.of(
+                        TestCordapp.findCordapp("net.corda.samples.tokenizedhouse.contracts"),
+                        TestCordapp.findCordapp("net.corda.samples.tokenizedhouse.flows").withConfig(flowsConfig),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.tokens.workflows"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.accounts.contracts"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.accounts.workflows"),
+                        TestCordapp.findCordapp("com.r3.corda.lib.ci.workflows"))));
+    }
+
+    public StartedMockNode createNode(CordaX500Name name) {
+        StartedMockNode node = network.createNode(name);
+        runNetwork();
+        return node;
+    }
+
+    /**
+     * Starts the flow without delivering any message, so it stays parked at its first exchange until
+     * {@link #runNetwork} is called.
+     */
+    public <T> CordaFuture<T> start(StartedMockNode node, FlowLogic<T> flow) {
+        return node.startFlow(flow);
+    }
+
+    public <T> T run(StartedMockNode node, FlowLogic<T> flow) throws Exception {
+        CordaFuture<T> future = node.startFlow(flow);
+        runNetwork();
+        return future.get();
+    }
+
+    public void runNetwork() {
+        if (!threadPerNode) {
+            network.runNetwork();
+        }
+    }
+
+    public void stopNodes() {
+        network.stopNodes();
+    }
+
+    public static Party party(StartedMockNode node) {
+        return node.getInfo().getLegalIdentities().get(0);
+    }
+
+    public static AccountInfo account(StartedMockNode node, String name) {
+        return node.transaction(() -> node.getServices().getVaultService().queryBy(AccountInfo.class).getStates().stream()
+                .map(account -> account.getState().getData())
+                .filter(account -> account.getName().equals(name))
+                .findFirst().orElseThrow(() -> new IllegalStateException("No account " + name)));
+    }
+
+    public static <T extends EvolvableTokenType> TokenPointer<T> pointer(StartedMockNode node, Class<T> tokenTypeClass,
+                                                                         String symbol) {
+        return node.transaction(() -> VaultLookups.pointerForSymbol(node.getServices(), tokenTypeClass, symbol));
+    }
+}
@@ -0,0 +1,83 @@
+package net.corda.samples.tokenizedhouse.flows;
+
+import com.google.common.collect.ImmutableList;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.services.vault.PageSpecification;
+import net.corda.samples.tokenizedhouse.flows.TopHoldersReportFlow.ConcentrationReport;
+import net.corda.samples.tokenizedhouse.flows.TopHoldersReportFlow.HolderRank;
+import net.corda.testing.node.StartedMockNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class TopHoldersReportTests {
+    private static final int ACCOUNTS = 12;
+
+    private TokenMockNetwork network;
+    private StartedMockNode seller;
+
+    @Before
+    public void setup() throws Exception {
+        network = new TokenMockNetwork();
+        seller = network.createNode(TokenMockNetwork.SELLER);
+
+        run(new RealEstateEvolvableFungibleTokenFlow.CreateHouseTokenFlow("house", 100000));
+        // account1 holds 1 token, account2 holds 2 tokens and so on: 78 tokens in all
+        for (int i = 1; i <= ACCOUNTS; i++) {
+            run(new CreateAndShareAccountFlow("account" + i, ImmutableList.of()));
+            run(new RealEstateEvolvableFungibleTokenFlow.IssueHouseTokenFlow("house", i, "account" + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        network.stopNodes();
+    }
+
+    private <T> T run(FlowLogic<T> flow) throws Exception {
+        return network.run(seller, flow);
+    }
+
+    private static List<Long> quantities(ConcentrationReport report) {
+        return report.getHolders().stream().map(HolderRank::getQuantity).collect(Collectors.toList());
+    }
+
+    @Test
+    public void holdersAreRankedByAccount() throws Exception {
+        ConcentrationReport report = run(new TopHoldersReportFlow(AssetClass.HOUSE, "house", 6));
+
+        assertEquals(ACCOUNTS, report.getHolderCount());
+        assertEquals(78, report.getTotalQuantity());
+        // The top 10 hold 3 to 12 tokens each
+        assertEquals(75, report.getTopHoldersQuantity());
+        assertEquals(75.0 / 78, report.getTopHoldersShare(), 1e-9);
+        // account6 to account12 hold at least 6 tokens
+        assertEquals(7, report.getHoldersAboveThreshold());
+
+        HolderRank first = report.getHolders().get(0);
+        assertEquals(1, first.getRank());
+        assertEquals(12, first.getQuantity());
+        assertNotNull(first.getAccountId());
+        assertEquals(12.0 / 78, first.getShare(), 1e-9);
+        assertEquals(ImmutableList.of(12L, 11L, 10L, 9L, 8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L), quantities(report));
+    }
+
+    @Test
+    public void pagesContinueTheRanking() throws Exception {
+        ConcentrationReport second = run(new TopHoldersReportFlow(AssetClass.HOUSE, "house", 6, new PageSpecification(2, 5)));
+        assertEquals(ImmutableList.of(7L, 6L, 5L, 4L, 3L), quantities(second));
+        assertEquals(6, second.getHolders().get(0).getRank());
+
+        ConcentrationReport last = run(new TopHoldersReportFlow(AssetClass.HOUSE, "house", 6, new PageSpecification(3, 5)));
+        assertEquals(ImmutableList.of(2L, 1L), quantities(last));
+        assertEquals(11, last.getHolders().get(0).getRank());
+        // The summary does not depend on the page
+        assertEquals(75, last.getTopHoldersQuantity());
+    }
+}
@@ -0,0 +1,78 @@
+package net.corda.samples.tokenizedhouse.services;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArchiveSegmentStoreTests {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesCanBeFoundByTransactionAndLinearId() throws Exception {
+        ArchiveSegmentStore store = new ArchiveSegmentStore(folder.getRoot().toPath(), 1024 * 1024);
+        byte[] tx1 = {1, 2, 3};
+        byte[] tx2 = {4, 5};
+        store.append(ImmutableList.of(
+                new ArchiveSegmentStore.Entry("TX1", 0, "FungibleToken", "LIN1", 10, 20, tx1),
+                new ArchiveSegmentStore.Entry("TX1", 1, "FungibleToken", "LIN2", 10, 20, tx1)));
+        store.append(ImmutableList.of(new ArchiveSegmentStore.Entry("TX2", 0, "FungibleHouseTokenState", "LIN1", 30, 40, tx2)));
+
+        List<ArchiveSegmentStore.Entry> byTx = store.findByTransaction("TX1");
+        assertEquals(2, byTx.size());
+        assertArrayEquals(tx1, byTx.get(0).getTransaction());
+
+        List<ArchiveSegmentStore.Entry> byLinearId = store.findByLinearId("LIN1");
+        assertEquals(2, byLinearId.size());
+        assertEquals(40, byLinearId.get(1).getConsumedAt());
+        assertArrayEquals(tx2, byLinearId.get(1).getTransaction());
+
+        assertTrue(store.findByTransaction("TX3").isEmpty());
+    }
+
+    @Test
+    public void fullSegmentsAreClosed() throws Exception {
+        ArchiveSegmentStore store = new ArchiveSegmentStore(folder.getRoot().toPath(), 1);
+        store.append(ImmutableList.of(new ArchiveSegmentStore.Entry("TX1", 0, "FungibleToken", null, 1, 2, new byte[]{1})));
+        store.append(ImmutableList.of(new ArchiveSegmentStore.Entry("TX2", 0, "FungibleToken", null, 1, 2, new byte[]{2})));
+
+        assertTrue(Files.exists(folder.getRoot().toPath().resolve("segment-00000002.seg")));
+        assertEquals(1, store.findByTransaction("TX1").size());
+        assertEquals(1, store.findByTransaction("TX2").size());
+    }
+
+    @Test
+    public void archivedEntriesAreNotAppendedAgain() throws Exception {
+        ArchiveSegmentStore store = new ArchiveSegmentStore(folder.getRoot().toPath(), 1024 * 1024);
+        ArchiveSegmentStore.Entry first = new ArchiveSegmentStore.Entry("TX1", 0, "FungibleToken", "LIN1", 1, 2, new byte[]{1});
+        ArchiveSegmentStore.Entry second = new ArchiveSegmentStore.Entry("TX1", 1, "FungibleToken", "LIN1", 1, 2, new byte[]{1});
+        assertEquals(1, store.append(ImmutableList.of(first)));
+
+        // As when the batch is archived again after its deletes failed to commit
+        assertEquals(0, store.append(ImmutableList.of(first)));
+        assertEquals(1, store.append(ImmutableList.of(first, second)));
+        assertEquals(2, store.findByTransaction("TX1").size());
+        assertEquals(2, store.findByLinearId("LIN1").size());
+    }
+
+    @Test
+    public void reopenedStoreFindsEarlierEntries() throws Exception {
+        ArchiveSegmentStore store = new ArchiveSegmentStore(folder.getRoot().toPath(), 1);
+        store.append(ImmutableList.of(new ArchiveSegmentStore.Entry("TX1", 0, "FungibleToken", "LIN1", 1, 2, new byte[]{1})));
+        store.append(ImmutableList.of(new ArchiveSegmentStore.Entry("TX2", 0, "FungibleToken", "LIN1", 1, 2, new byte[]{2})));
+
+        ArchiveSegmentStore reopened = new ArchiveSegmentStore(folder.getRoot().toPath(), 1);
+        assertEquals(2, reopened.findByLinearId("LIN1").size());
+        assertEquals(0, reopened.append(ImmutableList.of(new ArchiveSegmentStore.Entry("TX2", 0, "FungibleToken", "LIN1", 1, 2, new byte[]{2}))));
+        reopened.append(ImmutableList.of(new ArchiveSegmentStore.Entry("TX3", 0, "FungibleToken", null, 1, 2, new byte[]{3})));
+        assertTrue(Files.exists(folder.getRoot().toPath().resolve("segment-00000003.seg")));
+    }
+}